@@ -0,0 +1,126 @@
+package de.sventorben.keycloak.kommons.auth;
+
+import de.sventorben.keycloak.kommons.benchmark.Stub;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UnusualLoginTimeBenchmark {
+
+    private static final String ATTRIBUTE = "kommons.usualLoginTimes";
+    private static final String STATISTICS_ATTRIBUTE = "kommons.loginTimeStatistics";
+    private static final LocalTime LOGIN_TIME = LocalTime.of(9, 30);
+
+    @Param({"0", "1", "5"})
+    int storedLoginTimes;
+
+    private final UnusualLoginTimeConditionalAuthenticator authenticator = new UnusualLoginTimeConditionalAuthenticator();
+
+    private List<String> initialLoginTimes;
+    private List<String> loginTimes;
+    private String initialStatistics;
+    private String statistics;
+    private UserModel user;
+    private AuthenticationFlowContext context;
+    private AuthenticationFlowContext adaptiveContext;
+
+    @Setup
+    public void setUp() {
+        initialLoginTimes = new ArrayList<>();
+        UnusualLoginTimeStatistics initial = UnusualLoginTimeStatistics.EMPTY;
+        for (int i = 0; i < storedLoginTimes; i++) {
+            LocalTime time = LocalTime.of(8 + i, 15);
+            initialLoginTimes.add(time.toString());
+            initial = initial.add(time);
+        }
+        initialStatistics = storedLoginTimes == 0 ? null : initial.format();
+        resetLoginTimes();
+
+        user = Stub.of(UserModel.class)
+            .returning("getId", "user")
+            .on("getAttributeStream", args -> ATTRIBUTE.equals(args[0]) ? loginTimes.stream() : Stream.empty())
+            .on("setAttribute", args -> {
+                @SuppressWarnings("unchecked")
+                List<String> values = (List<String>) args[1];
+                loginTimes = values;
+                return null;
+            })
+            .on("getFirstAttribute", args -> STATISTICS_ATTRIBUTE.equals(args[0]) ? statistics : null)
+            .on("setSingleAttribute", args -> {
+                if (STATISTICS_ATTRIBUTE.equals(args[0])) {
+                    statistics = (String) args[1];
+                }
+                return null;
+            })
+            .build();
+
+        RealmModel realm = Stub.of(RealmModel.class)
+            .returning("getName", "benchmark")
+            .build();
+
+        AuthenticatorConfigModel config = new AuthenticatorConfigModel();
+        config.setConfig(Map.of("kommons.skew.minutes", "15"));
+
+        context = Stub.of(AuthenticationFlowContext.class)
+            .returning("getAuthenticatorConfig", config)
+            .returning("getUser", user)
+            .returning("getRealm", realm)
+            .build();
+
+        AuthenticatorConfigModel adaptiveConfig = new AuthenticatorConfigModel();
+        adaptiveConfig.setConfig(Map.of("kommons.skew.minutes", "15", "kommons.skew.adaptive", "true"));
+
+        adaptiveContext = Stub.of(AuthenticationFlowContext.class)
+            .returning("getAuthenticatorConfig", adaptiveConfig)
+            .returning("getUser", user)
+            .returning("getRealm", realm)
+            .build();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetLoginTimes() {
+        loginTimes = new ArrayList<>(initialLoginTimes);
+        statistics = initialStatistics;
+    }
+
+    @Benchmark
+    public boolean matchCondition() {
+        return authenticator.matchCondition(context);
+    }
+
+    @Benchmark
+    public boolean matchConditionAdaptive() {
+        return authenticator.matchCondition(adaptiveContext);
+    }
+
+    @Benchmark
+    public LocalTime getMinTime() {
+        return new UnusualLoginTimeUserWrapper(user).getMinTime();
+    }
+
+    @Benchmark
+    public LocalTime getMaxTime() {
+        return new UnusualLoginTimeUserWrapper(user).getMaxTime();
+    }
+
+    @Benchmark
+    public List<String> addSuccessfulLoginTime() {
+        new UnusualLoginTimeUserWrapper(user).addSuccessfulLoginTime(LOGIN_TIME);
+        return loginTimes;
+    }
+}
@@ -0,0 +1,65 @@
+package de.sventorben.keycloak.kommons.benchmark;
+
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.KeycloakContext;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.provider.Provider;
+import org.keycloak.tracing.NoopTracingProvider;
+import org.keycloak.tracing.TracingProvider;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Builds a request scoped {@link KeycloakSession} stand-in. Session attributes live in a plain map which
+ * benchmarks clear before every invocation, just like every request starts with a fresh session on a real server.
+ */
+public final class KeycloakStubs {
+
+    private KeycloakStubs() {
+    }
+
+    public static Session session(RealmModel realm, ClientModel client, Map<Class<? extends Provider>, Provider> providers) {
+        return session(realm, client, providers, Map.of());
+    }
+
+    /**
+     * @param accessors answers of the session's shortcut accessors, e.g. {@code groups()} or {@code users()}, by method name
+     */
+    public static Session session(RealmModel realm, ClientModel client, Map<Class<? extends Provider>, Provider> providers, Map<String, Object> accessors) {
+        Map<String, Object> attributes = new HashMap<>();
+        Map<Class<? extends Provider>, Provider> allProviders = new HashMap<>(providers);
+        allProviders.putIfAbsent(TracingProvider.class, new NoopTracingProvider());
+
+        KeycloakContext context = Stub.of(KeycloakContext.class)
+            .returning("getRealm", realm)
+            .returning("getClient", client)
+            .returning("getAuthenticationSession", null)
+            .build();
+
+        Stub<KeycloakSession> stub = Stub.of(KeycloakSession.class);
+        accessors.forEach(stub::returning);
+        KeycloakSession session = stub
+            .returning("getContext", context)
+            .on("getProvider", args -> allProviders.get((Class<?>) args[0]))
+            .on("getAttribute", args -> attributes.get((String) args[0]))
+            .on("getAttributeOrDefault", args -> attributes.getOrDefault((String) args[0], args[1]))
+            .on("setAttribute", args -> attributes.put((String) args[0], args[1]))
+            .on("removeAttribute", args -> attributes.remove((String) args[0]))
+            .build();
+
+        return new Session(session, attributes);
+    }
+
+    public record Session(KeycloakSession session, Map<String, Object> attributes) {
+
+        /**
+         * Starts a new request, i.e. drops everything the previous request stored in the session.
+         */
+        public KeycloakSession fresh() {
+            attributes.clear();
+            return session;
+        }
+    }
+}
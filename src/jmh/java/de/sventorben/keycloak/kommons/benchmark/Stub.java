@@ -0,0 +1,54 @@
+package de.sventorben.keycloak.kommons.benchmark;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-in for Keycloak model interfaces.
+ * <p>
+ * Only the methods that are explicitly answered are supported. Any other invocation fails, so a benchmark never
+ * silently measures a code path that differs from the one on a real server. Invocations go through a dynamic proxy,
+ * which adds a small constant overhead (including the argument array) to every call of a stubbed method.
+ */
+public final class Stub<T> {
+
+    private final Class<T> type;
+    private final Map<String, Function<Object[], Object>> answers = new HashMap<>();
+
+    private Stub(Class<T> type) {
+        this.type = type;
+    }
+
+    public static <T> Stub<T> of(Class<T> type) {
+        return new Stub<>(type);
+    }
+
+    public Stub<T> on(String method, Function<Object[], Object> answer) {
+        answers.put(method, answer);
+        return this;
+    }
+
+    public Stub<T> returning(String method, Object value) {
+        return on(method, args -> value);
+    }
+
+    public T build() {
+        Map<String, Function<Object[], Object>> methods = Map.copyOf(answers);
+        String name = type.getSimpleName();
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            Function<Object[], Object> answer = methods.get(method.getName());
+            if (answer != null) {
+                return answer.apply(args);
+            }
+            return switch (method.getName()) {
+                case "equals" -> self == args[0];
+                case "hashCode" -> System.identityHashCode(self);
+                case "toString" -> name + "@" + Integer.toHexString(System.identityHashCode(self));
+                default -> throw new UnsupportedOperationException(name + "." + method.getName() + " is not stubbed");
+            };
+        });
+        return type.cast(proxy);
+    }
+}
@@ -0,0 +1,109 @@
+package de.sventorben.keycloak.kommons.oidc;
+
+import de.sventorben.keycloak.kommons.benchmark.KeycloakStubs;
+import de.sventorben.keycloak.kommons.benchmark.Stub;
+import org.keycloak.models.*;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.keycloak.models.Constants.CFG_DELIMITER;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiClientAttributesClaimMapperBenchmark {
+
+    public enum ValueType {
+        STRING("some-value"),
+        INT("42"),
+        LONG("9007199254740993"),
+        BOOLEAN("true"),
+        JSON("{\"tier\":\"gold\",\"limits\":[1,2,3]}");
+
+        private final String value;
+
+        ValueType(String value) {
+            this.value = value;
+        }
+    }
+
+    @Param({"1", "10", "50"})
+    int attributes;
+
+    @Param({"STRING", "INT", "LONG", "BOOLEAN", "JSON"})
+    ValueType valueType;
+
+    private final MultiClientAttributesClaimMapper mapper = new MultiClientAttributesClaimMapper();
+
+    private KeycloakStubs.Session session;
+    private ProtocolMapperModel mappingModel;
+    private UserSessionModel userSession;
+    private ClientSessionContext clientSessionContext;
+
+    @Setup
+    public void setUp() {
+        List<String> claimNames = new ArrayList<>();
+        List<String> attributeNames = new ArrayList<>();
+        Map<String, String> clientAttributes = new HashMap<>();
+        for (int i = 0; i < attributes; i++) {
+            claimNames.add("claim_" + i);
+            attributeNames.add("attribute." + i);
+            clientAttributes.put("attribute." + i, valueType.value);
+        }
+
+        mappingModel = new ProtocolMapperModel();
+        mappingModel.setId("client-attributes");
+        mappingModel.setName("client-attributes");
+        mappingModel.setProtocol(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        mappingModel.setProtocolMapper(mapper.getId());
+        mappingModel.setConfig(new HashMap<>(Map.of(
+            "access.token.claim", "true",
+            "kommons.client.attr.claim.names", String.join(CFG_DELIMITER, claimNames),
+            "kommons.client.attr.attribute.names", String.join(CFG_DELIMITER, attributeNames))));
+
+        RealmModel realm = Stub.of(RealmModel.class)
+            .returning("getId", "benchmark")
+            .returning("getName", "benchmark")
+            .build();
+
+        ClientModel client = Stub.of(ClientModel.class)
+            .returning("getId", "client")
+            .returning("getClientId", "client")
+            .returning("getRealm", realm)
+            .on("getAttribute", args -> clientAttributes.get((String) args[0]))
+            .build();
+
+        session = KeycloakStubs.session(realm, client, Map.of());
+
+        AuthenticatedClientSessionModel clientSession = Stub.of(AuthenticatedClientSessionModel.class)
+            .returning("getClient", client)
+            .build();
+
+        userSession = Stub.of(UserSessionModel.class)
+            .returning("getRealm", realm)
+            .build();
+
+        clientSessionContext = Stub.of(ClientSessionContext.class)
+            .returning("getClientSession", clientSession)
+            .build();
+
+        if (setClaim().getOtherClaims().size() != attributes) {
+            throw new IllegalStateException("Stand-ins do not reach the attribute mapping, claims are missing");
+        }
+    }
+
+    @Benchmark
+    public AccessToken setClaim() {
+        return mapper.transformAccessToken(new AccessToken(), mappingModel, session.fresh(), userSession, clientSessionContext);
+    }
+}
@@ -0,0 +1,182 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import de.sventorben.keycloak.kommons.benchmark.KeycloakStubs;
+import de.sventorben.keycloak.kommons.benchmark.Stub;
+import org.keycloak.common.Profile;
+import org.keycloak.models.*;
+import org.keycloak.organization.OrganizationProvider;
+import org.keycloak.organization.protocol.mappers.oidc.OrganizationMembershipMapper;
+import org.keycloak.protocol.oidc.OIDCLoginProtocol;
+import org.keycloak.representations.AccessToken;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OidcOrgsGroupMapperBenchmark {
+
+    private static final String REALM = "benchmark";
+
+    @Param({"1", "10", "100"})
+    int organizations;
+
+    @Param({"1", "10", "50"})
+    int groupsPerOrganization;
+
+    @Param({"false", "true"})
+    boolean flatGroups;
+
+    private final OidcOrgsGroupMapperFactory mapper = new OidcOrgsGroupMapperFactory();
+
+    private KeycloakStubs.Session session;
+    private ProtocolMapperModel mappingModel;
+    private UserSessionModel userSession;
+    private ClientSessionContext clientSessionContext;
+
+    @Setup
+    public void setUp() {
+        Profile.configure();
+
+        mappingModel = new ProtocolMapperModel();
+        mappingModel.setId("org-groups");
+        mappingModel.setName("org-groups");
+        mappingModel.setProtocol(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        mappingModel.setProtocolMapper(mapper.getId());
+        mappingModel.setConfig(new HashMap<>(Map.of(
+            "access.token.claim", "true",
+            "kommons.emit.flattened.group.claim", Boolean.toString(flatGroups))));
+
+        ProtocolMapperModel membershipMapper = new ProtocolMapperModel();
+        membershipMapper.setId("org-membership");
+        membershipMapper.setName("organization");
+        membershipMapper.setProtocol(OIDCLoginProtocol.LOGIN_PROTOCOL);
+        membershipMapper.setProtocolMapper(OrganizationMembershipMapper.PROVIDER_ID);
+        membershipMapper.setConfig(Map.of("claim.name", "organization"));
+
+        ClientScopeModel organizationScope = Stub.of(ClientScopeModel.class)
+            .returning("getId", "organization")
+            .returning("getName", "organization")
+            .returning("getProtocol", OIDCLoginProtocol.LOGIN_PROTOCOL)
+            .on("getProtocolMappersStream", args -> List.of(membershipMapper, mappingModel).stream())
+            .on("getProtocolMapperById", args -> membershipMapper.getId().equals(args[0]) ? membershipMapper : null)
+            .build();
+
+        RealmModel realm = Stub.of(RealmModel.class)
+            .returning("getId", REALM)
+            .returning("getName", REALM)
+            .returning("isOrganizationsEnabled", true)
+            .returning("getAttribute", null)
+            .on("getClientScopesStream", args -> List.of(organizationScope).stream())
+            .on("getClientScopeById", args -> organizationScope.getId().equals(args[0]) ? organizationScope : null)
+            .build();
+
+        ClientModel client = Stub.of(ClientModel.class)
+            .returning("getId", "client")
+            .returning("getClientId", "client")
+            .returning("getRealm", realm)
+            .returning("getAttribute", null)
+            .on("getClientScopes", args -> Boolean.TRUE.equals(args[0]) ? Map.of() : Map.of("organization", organizationScope))
+            .build();
+
+        Set<GroupModel> memberships = new HashSet<>();
+        List<OrganizationModel> userOrganizations = new ArrayList<>();
+        List<GroupModel> organizationGroups = new ArrayList<>();
+        for (int o = 0; o < organizations; o++) {
+            String alias = "org-" + o;
+            userOrganizations.add(Stub.of(OrganizationModel.class)
+                .returning("getId", alias)
+                .returning("getAlias", alias)
+                .returning("isEnabled", true)
+                .build());
+
+            List<GroupModel> subGroups = new ArrayList<>();
+            for (int g = 0; g < groupsPerOrganization; g++) {
+                GroupModel subGroup = group(alias + "-group-" + g, List.of());
+                subGroups.add(subGroup);
+                // the user is member of every other group of an organization
+                if (g % 2 == 0) {
+                    memberships.add(subGroup);
+                }
+            }
+            organizationGroups.add(group(alias, subGroups));
+        }
+        GroupModel root = group("organizations", organizationGroups);
+
+        UserModel user = Stub.of(UserModel.class)
+            .returning("getId", "user")
+            .returning("getFirstAttribute", null)
+            .returning("getFederationLink", null)
+            .on("isMemberOf", args -> memberships.contains((GroupModel) args[0]))
+            .build();
+
+        GroupProvider groupProvider = Stub.of(GroupProvider.class)
+            .on("getGroupByName", args -> "organizations".equals(args[2]) ? root : null)
+            .build();
+
+        OrganizationProvider organizationProvider = Stub.of(OrganizationProvider.class)
+            .returning("isEnabled", true)
+            .on("getByMember", args -> userOrganizations.stream())
+            .build();
+
+        session = KeycloakStubs.session(realm, client, Map.of(OrganizationProvider.class, organizationProvider), Map.of("groups", groupProvider));
+
+        AuthenticatedClientSessionModel clientSession = Stub.of(AuthenticatedClientSessionModel.class)
+            .returning("getClient", client)
+            .returning("getNote", null)
+            .build();
+
+        userSession = Stub.of(UserSessionModel.class)
+            .returning("getUser", user)
+            .returning("getRealm", realm)
+            .build();
+
+        clientSessionContext = Stub.of(ClientSessionContext.class)
+            .returning("getClientSession", clientSession)
+            .returning("getScopeString", "openid organization:*")
+            .build();
+
+        String expectedClaim = flatGroups ? "groups" : "organization";
+        if (!setClaim().getOtherClaims().containsKey(expectedClaim)) {
+            throw new IllegalStateException("Stand-ins do not reach the group mapping, claim '" + expectedClaim + "' is missing");
+        }
+    }
+
+    private static GroupModel group(String name, List<GroupModel> subGroups) {
+        return Stub.of(GroupModel.class)
+            .returning("getId", name)
+            .returning("getName", name)
+            .on("getSubGroupsStream", args -> subGroups.stream())
+            .build();
+    }
+
+    /**
+     * Measures tokens of indexed users. The index is static, so every invocation after the first one is a hit.
+     */
+    @Benchmark
+    public AccessToken setClaim() {
+        return mapper.transformAccessToken(new AccessToken(), mappingModel, session.fresh(), userSession, clientSessionContext);
+    }
+
+    /**
+     * Measures tokens of users who are not indexed yet, whose groups are resolved via the model API.
+     */
+    @Benchmark
+    public AccessToken setClaimCold(ColdIndex coldIndex) {
+        return setClaim();
+    }
+
+    @State(Scope.Thread)
+    public static class ColdIndex {
+
+        @Setup(Level.Invocation)
+        public void invalidate() {
+            OrgGroupMembershipIndex.invalidateLocally(REALM);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package de.sventorben.keycloak.kommons.admin;
+
+import de.sventorben.keycloak.kommons.cache.KommonsCache;
+import de.sventorben.keycloak.kommons.cache.KommonsCacheStatistics;
+import de.sventorben.keycloak.kommons.cache.KommonsCaches;
+import de.sventorben.keycloak.kommons.orgs.OrgGroupMembershipIndex;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import org.jboss.logging.Logger;
+import org.keycloak.events.admin.OperationType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.fgap.AdminPermissionEvaluator;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Operator endpoints for the node-local Kommons caches. Reading statistics requires the {@code view-realm}
+ * role of the realm's {@code realm-management} client, warmup, invalidation and rebuilds require {@code manage-realm}.
+ * <p>
+ * All operations only affect the node that serves the request, except for index rebuilds, which discard the index
+ * on all nodes.
+ */
+public final class KommonsAdminResource {
+
+    private static final Logger LOG = Logger.getLogger(KommonsAdminResource.class);
+
+    private static final String RESOURCE_TYPE = "KOMMONS_CACHE";
+
+    private final KeycloakSession session;
+    private final RealmModel realm;
+    private final AdminPermissionEvaluator auth;
+    private final AdminEventBuilder adminEvent;
+
+    KommonsAdminResource(KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth, AdminEventBuilder adminEvent) {
+        this.session = session;
+        this.realm = realm;
+        this.auth = auth;
+        this.adminEvent = adminEvent.resource(RESOURCE_TYPE);
+    }
+
+    @GET
+    @Path("caches")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<KommonsCacheStatistics> getCacheStatistics() {
+        auth.realm().requireViewRealm();
+        return KommonsCaches.statistics(realm.getId());
+    }
+
+    @POST
+    @Path("caches/warmup")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<KommonsCacheStatistics> warmup() {
+        auth.realm().requireManageRealm();
+        long start = System.currentTimeMillis();
+        KommonsCaches.warmup(session, realm);
+        LOG.infof("Warmed up Kommons caches of realm '%s' in %d ms", realm.getName(), System.currentTimeMillis() - start);
+        adminEvent.operation(OperationType.ACTION).resourcePath(session.getContext().getUri()).success();
+        return KommonsCaches.statistics(realm.getId());
+    }
+
+    @POST
+    @Path("caches/invalidate")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<KommonsCacheStatistics> invalidate(@QueryParam("cache") String cacheName) {
+        auth.realm().requireManageRealm();
+        if (cacheName == null) {
+            KommonsCaches.invalidateRealm(realm.getId());
+        } else {
+            KommonsCache<?, ?> cache = KommonsCaches.get(cacheName);
+            if (cache == null) {
+                throw new NotFoundException("Cache '" + cacheName + "' does not exist");
+            }
+            cache.invalidateRealm(realm.getId());
+        }
+        LOG.infof("Invalidated Kommons cache '%s' of realm '%s'", cacheName == null ? "*" : cacheName, realm.getName());
+        adminEvent.operation(OperationType.ACTION).resourcePath(session.getContext().getUri()).success();
+        return KommonsCaches.statistics(realm.getId());
+    }
+
+    @POST
+    @Path("indexes/org-groups/rebuild")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Integer> rebuildOrgGroupIndex() {
+        auth.realm().requireManageRealm();
+        long start = System.currentTimeMillis();
+        int users = OrgGroupMembershipIndex.rebuild(session, realm);
+        LOG.infof("Rebuilt organization group index of realm '%s' for %d users in %d ms", realm.getName(), users, System.currentTimeMillis() - start);
+        adminEvent.operation(OperationType.ACTION).resourcePath(session.getContext().getUri()).success();
+        return Map.of("users", users);
+    }
+}
@@ -1,5 +1,7 @@
 package de.sventorben.keycloak.kommons.auth;
 
+import de.sventorben.keycloak.kommons.telemetry.KommonsCounter;
+import de.sventorben.keycloak.kommons.telemetry.KommonsMetrics;
 import org.jboss.logging.Logger;
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.authenticators.conditional.ConditionalAuthenticator;
@@ -14,6 +16,12 @@ public final class UnusualLoginTimeConditionalAuthenticator implements Condition
 
     private static final Logger LOG = Logger.getLogger(UnusualLoginTimeConditionalAuthenticator.class);
 
+    private static final String RESULT_NO_USER = "no_user";
+    private static final String RESULT_USUAL = "usual";
+    private static final String RESULT_UNUSUAL = "unusual";
+
+    private static final KommonsCounter EVALUATIONS = KommonsMetrics.conditionCounter(UnusualLoginTimeConditionalAuthenticatorFactory.PROVIDER_ID);
+
     @Override
     public boolean matchCondition(AuthenticationFlowContext context) {
 
@@ -22,11 +30,16 @@ public final class UnusualLoginTimeConditionalAuthenticator implements Condition
 
         if (context.getUser() == null) {
             LOG.debug("Skipping authenticator execution with id '%s' - no user logged in".formatted(context.getExecution().getId()));
+            EVALUATIONS.increment(context.getRealm().getName(), RESULT_NO_USER);
             return false;
         }
 
         UnusualLoginTimeUserWrapper user = new UnusualLoginTimeUserWrapper(context.getUser());
-        return !isInRange(user, skew);
+        boolean unusual = config.isAdaptive()
+            ? !user.getStatistics().isUsual(LocalTime.now(ZoneOffset.UTC), config.getDeviations(), skew)
+            : !isInRange(user, skew);
+        EVALUATIONS.increment(context.getRealm().getName(), unusual ? RESULT_UNUSUAL : RESULT_USUAL);
+        return unusual;
     }
 
     private static boolean isInRange(UnusualLoginTimeUserWrapper user, int skew) {
@@ -1,5 +1,6 @@
 package de.sventorben.keycloak.kommons.auth;
 
+import org.jboss.logging.Logger;
 import org.keycloak.models.AuthenticatorConfigModel;
 import org.keycloak.provider.ProviderConfigProperty;
 
@@ -8,8 +9,13 @@ import java.util.List;
 
 final class UnusualLoginTimeConditionalAuthenticatorConfig {
 
+    private static final Logger LOG = Logger.getLogger(UnusualLoginTimeConditionalAuthenticatorConfig.class);
+
     private static final String CONFIG_SKEW_MINUTES = "kommons.skew.minutes";
     private static final int DEFAULT_SKEW_MINUTES = 15;
+    private static final String CONFIG_ADAPTIVE = "kommons.skew.adaptive";
+    private static final String CONFIG_DEVIATIONS = "kommons.skew.deviations";
+    private static final double DEFAULT_DEVIATIONS = 2;
 
     static final List<ProviderConfigProperty> PROPERTIES;
 
@@ -22,7 +28,24 @@ final class UnusualLoginTimeConditionalAuthenticatorConfig {
         skewProp.setDefaultValue(DEFAULT_SKEW_MINUTES);
         skewProp.setRequired(true);
         skewProp.setSecret(false);
-        PROPERTIES = List.of(skewProp);
+
+        ProviderConfigProperty adaptiveProp = new ProviderConfigProperty();
+        adaptiveProp.setName(CONFIG_ADAPTIVE);
+        adaptiveProp.setLabel("Adaptive Window");
+        adaptiveProp.setType(ProviderConfigProperty.BOOLEAN_TYPE);
+        adaptiveProp.setHelpText("Derive each user's window from the mean and standard deviation of all their login times instead of the range of the most recent ones. The clock skew is the minimum deviation allowed.");
+        adaptiveProp.setDefaultValue(false);
+        adaptiveProp.setSecret(false);
+
+        ProviderConfigProperty deviationsProp = new ProviderConfigProperty();
+        deviationsProp.setName(CONFIG_DEVIATIONS);
+        deviationsProp.setLabel("Standard Deviations");
+        deviationsProp.setType(ProviderConfigProperty.STRING_TYPE);
+        deviationsProp.setHelpText("Allowable deviation from a user's mean login time in standard deviations, e.g. 2 means ±2σ. Must be a number greater than 0. Only applies to the adaptive window.");
+        deviationsProp.setDefaultValue(String.valueOf(DEFAULT_DEVIATIONS));
+        deviationsProp.setSecret(false);
+
+        PROPERTIES = List.of(skewProp, adaptiveProp, deviationsProp);
     }
 
     private final AuthenticatorConfigModel authenticatorConfig;
@@ -39,4 +62,30 @@ final class UnusualLoginTimeConditionalAuthenticatorConfig {
             authenticatorConfig.getConfig()
                 .getOrDefault(CONFIG_SKEW_MINUTES, String.valueOf(DEFAULT_SKEW_MINUTES)));
     }
+
+    boolean isAdaptive() {
+        return Boolean.parseBoolean(authenticatorConfig.getConfig().get(CONFIG_ADAPTIVE));
+    }
+
+    /**
+     * Returns the configured number of standard deviations, or the default unless it is a finite number greater than
+     * {@code 0}. {@code NaN} would render every login unusual, infinite or negative values would silently disable the
+     * condition or the setting.
+     */
+    double getDeviations() {
+        String value = authenticatorConfig.getConfig().get(CONFIG_DEVIATIONS);
+        if (value == null || value.isBlank()) {
+            return DEFAULT_DEVIATIONS;
+        }
+        try {
+            double deviations = Double.parseDouble(value.trim());
+            if (Double.isFinite(deviations) && deviations > 0) {
+                return deviations;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the default
+        }
+        LOG.debugf("Invalid value '%s' of '%s', using %s instead", value, CONFIG_DEVIATIONS, DEFAULT_DEVIATIONS);
+        return DEFAULT_DEVIATIONS;
+    }
 }
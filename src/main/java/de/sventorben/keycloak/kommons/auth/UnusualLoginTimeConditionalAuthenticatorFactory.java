@@ -12,7 +12,7 @@ import static de.sventorben.keycloak.kommons.auth.UnusualLoginTimeConditionalAut
 
 public final class UnusualLoginTimeConditionalAuthenticatorFactory implements ConditionalAuthenticatorFactory {
 
-    private static final String PROVIDER_ID = "kommons-unusual-login-time";
+    static final String PROVIDER_ID = "kommons-unusual-login-time";
 
     private static final UnusualLoginTimeConditionalAuthenticator INSTANCE = new UnusualLoginTimeConditionalAuthenticator();
 
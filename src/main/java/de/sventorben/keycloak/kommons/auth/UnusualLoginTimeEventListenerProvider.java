@@ -1,11 +1,17 @@
 package de.sventorben.keycloak.kommons.auth;
 
+import de.sventorben.keycloak.kommons.cache.KommonsCache;
+import de.sventorben.keycloak.kommons.telemetry.KommonsMetrics;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTimer;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTracing;
 import org.keycloak.Config;
 import org.keycloak.events.Event;
 import org.keycloak.events.EventListenerProvider;
 import org.keycloak.events.EventListenerProviderFactory;
 import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
 import org.keycloak.models.*;
+import org.keycloak.tracing.TracingProviderUtil;
 
 import java.time.Instant;
 import java.time.LocalTime;
@@ -15,6 +21,12 @@ public final class UnusualLoginTimeEventListenerProvider implements EventListene
 
     private static final String PROVIDER_ID = "kommons-unusual-login-time-listener";
 
+    private static final KommonsTimer ON_EVENT_TIMER = KommonsMetrics.eventListenerTimer(PROVIDER_ID);
+
+    private static final KommonsCache<String, String> SERVICE_ACCOUNTS = KommonsCache.<String, String>builder("unusual-login-time-service-accounts")
+        .invalidatedBy(ResourceType.CLIENT, ResourceType.USER)
+        .build();
+
     private KeycloakSession keycloakSession;
 
     public UnusualLoginTimeEventListenerProvider() {}
@@ -26,7 +38,16 @@ public final class UnusualLoginTimeEventListenerProvider implements EventListene
 
     @Override
     public void onEvent(Event event) {
+        long start = ON_EVENT_TIMER.start();
         RealmModel realm = keycloakSession.realms().getRealm(event.getRealmId());
+        try {
+            recordLoginTime(realm, event);
+        } finally {
+            ON_EVENT_TIMER.stop(realm == null ? null : realm.getName(), event.getType().name(), start);
+        }
+    }
+
+    private void recordLoginTime(RealmModel realm, Event event) {
         UserModel user = null;
         switch (event.getType()) {
             case LOGIN:
@@ -34,8 +55,9 @@ public final class UnusualLoginTimeEventListenerProvider implements EventListene
                 user = keycloakSession.users().getUserById(realm, event.getUserId());
                 break;
             case CLIENT_LOGIN:
-                ClientModel client = keycloakSession.clients().getClientById(realm, event.getClientId());
-                user = keycloakSession.users().getServiceAccount(client);
+                user = event.getUserId() == null
+                    ? getServiceAccount(realm, event.getClientId())
+                    : keycloakSession.users().getUserById(realm, event.getUserId());
                 break;
         }
 
@@ -46,7 +68,34 @@ public final class UnusualLoginTimeEventListenerProvider implements EventListene
         long loginTime = event.getTime();
         LocalTime loginTimeUtc = Instant.ofEpochMilli(loginTime).atZone(ZoneId.of("UTC")).toLocalTime();
         UnusualLoginTimeUserWrapper userWrapper = new UnusualLoginTimeUserWrapper(user);
-        userWrapper.addSuccessfulLoginTime(loginTimeUtc);
+        TracingProviderUtil.getTracingProvider(keycloakSession).trace(UnusualLoginTimeEventListenerProvider.class, "addSuccessfulLoginTime", span -> {
+            span.setAttribute(KommonsTracing.EVENT_TYPE, event.getType().name());
+            userWrapper.addSuccessfulLoginTime(loginTimeUtc);
+        });
+    }
+
+    /**
+     * Resolves the service account of the client with the given client id. Cached user ids that no longer resolve,
+     * e.g. because service accounts have been disabled on another node, are looked up again.
+     */
+    private UserModel getServiceAccount(RealmModel realm, String clientId) {
+        if (clientId == null) {
+            return null;
+        }
+        String userId = SERVICE_ACCOUNTS.getIfPresent(realm.getId(), clientId);
+        if (userId != null) {
+            UserModel user = keycloakSession.users().getUserById(realm, userId);
+            if (user != null) {
+                return user;
+            }
+            SERVICE_ACCOUNTS.invalidate(realm.getId(), clientId);
+        }
+        ClientModel client = keycloakSession.clients().getClientByClientId(realm, clientId);
+        UserModel user = client == null ? null : keycloakSession.users().getServiceAccount(client);
+        if (user != null) {
+            SERVICE_ACCOUNTS.put(realm.getId(), clientId, user.getId());
+        }
+        return user;
     }
 
     @Override
@@ -0,0 +1,88 @@
+package de.sventorben.keycloak.kommons.auth;
+
+import java.time.LocalTime;
+
+/**
+ * Running circular statistics of a user's login times. Each login time is a point on the 24-hour clock, i.e. an
+ * angle, and only the number of logins and the mean of the angles' cosines and sines are kept. Adding a login time
+ * updates both means in constant time, without rescanning earlier logins.
+ * <p>
+ * The resultant length {@code R} of the mean vector yields the circular standard deviation {@code sqrt(-2 ln R)}.
+ * Logins spread evenly around the clock result in {@code R = 0} and an infinite deviation. Once {@value #MAX_WEIGHT}
+ * logins have been recorded, each new login weighs as much as that, so the statistics follow schedule changes.
+ */
+record UnusualLoginTimeStatistics(long count, double meanCos, double meanSin) {
+
+    static final UnusualLoginTimeStatistics EMPTY = new UnusualLoginTimeStatistics(0, 0, 0);
+
+    private static final int MAX_WEIGHT = 100;
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final double RADIANS_PER_MINUTE = 2 * Math.PI / MINUTES_PER_DAY;
+
+    /**
+     * Parses statistics in the format of {@link #format()}, or returns {@link #EMPTY} if the value is malformed.
+     */
+    static UnusualLoginTimeStatistics parse(String value) {
+        if (value == null) {
+            return EMPTY;
+        }
+        String[] parts = value.split(";");
+        if (parts.length != 3) {
+            return EMPTY;
+        }
+        try {
+            return new UnusualLoginTimeStatistics(Long.parseLong(parts[0]), Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+        } catch (NumberFormatException e) {
+            return EMPTY;
+        }
+    }
+
+    String format() {
+        return count + ";" + meanCos + ";" + meanSin;
+    }
+
+    UnusualLoginTimeStatistics add(LocalTime time) {
+        double angle = minuteOfDay(time) * RADIANS_PER_MINUTE;
+        long weight = Math.min(count + 1, MAX_WEIGHT);
+        return new UnusualLoginTimeStatistics(
+            count + 1,
+            meanCos + (Math.cos(angle) - meanCos) / weight,
+            meanSin + (Math.sin(angle) - meanSin) / weight);
+    }
+
+    /**
+     * Returns the mean login time as minute of the day.
+     */
+    double meanMinuteOfDay() {
+        double minute = Math.atan2(meanSin, meanCos) / RADIANS_PER_MINUTE;
+        return minute < 0 ? minute + MINUTES_PER_DAY : minute;
+    }
+
+    /**
+     * Returns the circular standard deviation of the login times in minutes.
+     */
+    double deviationMinutes() {
+        double resultantLength = Math.hypot(meanCos, meanSin);
+        if (resultantLength >= 1) {
+            return 0;
+        }
+        if (resultantLength <= 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.sqrt(-2 * Math.log(resultantLength)) / RADIANS_PER_MINUTE;
+    }
+
+    /**
+     * Returns whether the given time lies within {@code deviations} standard deviations, but at least
+     * {@code skewMinutes}, of the mean login time, across midnight if necessary.
+     */
+    boolean isUsual(LocalTime time, double deviations, int skewMinutes) {
+        double halfWidth = Math.max(deviations * deviationMinutes(), skewMinutes);
+        double distance = Math.abs(minuteOfDay(time) - meanMinuteOfDay());
+        return Math.min(distance, MINUTES_PER_DAY - distance) <= halfWidth;
+    }
+
+    private static double minuteOfDay(LocalTime time) {
+        return time.toSecondOfDay() / 60d;
+    }
+}
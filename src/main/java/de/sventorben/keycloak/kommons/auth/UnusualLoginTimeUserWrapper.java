@@ -10,6 +10,7 @@ import java.util.stream.Collectors;
 
 final class UnusualLoginTimeUserWrapper {
     private static final String USER_ATTRIBUTE_USUAL_LOGIN_TIMES = "kommons.usualLoginTimes";
+    private static final String USER_ATTRIBUTE_LOGIN_TIME_STATISTICS = "kommons.loginTimeStatistics";
 
     private final UserModel user;
 
@@ -29,7 +30,12 @@ final class UnusualLoginTimeUserWrapper {
             .max(Comparator.naturalOrder()).orElse(LocalTime.MAX);
     }
 
+    UnusualLoginTimeStatistics getStatistics() {
+        return UnusualLoginTimeStatistics.parse(user.getFirstAttribute(USER_ATTRIBUTE_LOGIN_TIME_STATISTICS));
+    }
+
     void addSuccessfulLoginTime(LocalTime time) {
+        user.setSingleAttribute(USER_ATTRIBUTE_LOGIN_TIME_STATISTICS, getStatistics().add(time).format());
         List<String> usualTimes = user.getAttributeStream(USER_ATTRIBUTE_USUAL_LOGIN_TIMES).collect(Collectors.toList());
         usualTimes.add(0, time.format(DateTimeFormatter.ISO_LOCAL_TIME));
         usualTimes = usualTimes.subList(0, Math.min(5, usualTimes.size()));
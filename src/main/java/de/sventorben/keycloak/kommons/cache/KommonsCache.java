@@ -0,0 +1,327 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Node-local, per-realm cache of data derived from the Keycloak model.
+ * <p>
+ * Entries are dropped when an admin event of one of the configured resource types occurs in the realm (see
+ * {@link KommonsCacheInvalidationEventListener}). Admin events are only observed on the node that handles the
+ * admin request, hence entries additionally expire after a fixed time, which bounds staleness on all other nodes
+ * of a cluster. Each realm holds at most the configured number of entries; exceeding it evicts an arbitrary entry.
+ * Caches with a {@link Builder#maximumWeight(long, KommonsCacheWeigher) maximum weight} are instead bounded by the
+ * estimated memory retained by all their entries, across realms.
+ */
+public final class KommonsCache<K, V> {
+
+    private static final Counters EMPTY_COUNTERS = new Counters();
+
+    private final String name;
+    private final int maximumSize;
+    private final long expireAfterWriteMillis;
+    private final long maximumWeight;
+    private final KommonsCacheWeigher<K, V> weigher;
+    private final Set<String> invalidatedBy;
+    private final KommonsCacheWarmer warmer;
+
+    private final ConcurrentMap<String, ConcurrentMap<K, Entry<V>>> realms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<>();
+    private final AtomicLong weight = new AtomicLong();
+
+    private KommonsCache(Builder<K, V> builder) {
+        this.name = builder.name;
+        this.maximumSize = builder.maximumSize != null ? builder.maximumSize : builder.weigher != null ? Integer.MAX_VALUE : 10_000;
+        this.expireAfterWriteMillis = builder.expireAfterWrite.toMillis();
+        this.maximumWeight = builder.maximumWeight;
+        this.weigher = builder.weigher;
+        this.invalidatedBy = builder.invalidatedBy;
+        this.warmer = builder.warmer;
+    }
+
+    public static <K, V> Builder<K, V> builder(String name) {
+        return new Builder<>(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the cached value or computes, caches and returns it. {@code null} values are not cached.
+     */
+    public V get(String realmId, K key, Function<K, V> loader) {
+        V value = getIfPresent(realmId, key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value != null) {
+                put(realmId, key, value);
+            }
+        }
+        return value;
+    }
+
+    public V getIfPresent(String realmId, K key) {
+        ConcurrentMap<K, Entry<V>> entries = realms.get(realmId);
+        Entry<V> entry = entries == null ? null : entries.get(key);
+        Counters countersOfRealm = counters(realmId);
+        if (entry == null) {
+            countersOfRealm.misses.increment();
+            return null;
+        }
+        if (isExpired(entry)) {
+            if (entries.remove(key, entry)) {
+                removed(realmId, entry);
+                countersOfRealm.evictions.increment();
+            }
+            countersOfRealm.misses.increment();
+            return null;
+        }
+        countersOfRealm.hits.increment();
+        return entry.value();
+    }
+
+    public void put(String realmId, K key, V value) {
+        ConcurrentMap<K, Entry<V>> entries = realms.computeIfAbsent(realmId, it -> new ConcurrentHashMap<>());
+        if (entries.size() >= maximumSize && !entries.containsKey(key)) {
+            evictOne(realmId, entries);
+        }
+        Entry<V> entry = new Entry<>(value, Time.currentTimeMillis(), weigher == null ? 0 : weigher.weigh(key, value));
+        Entry<V> replaced = entries.put(key, entry);
+        added(realmId, entry);
+        removed(realmId, replaced);
+        if (detached(realmId, entries)) {
+            // the realm has been invalidated concurrently, the entry must not linger in the detached map
+            discard(realmId, entries, key, entry);
+            return;
+        }
+        if (weigher != null) {
+            while (weight.get() > maximumWeight && evictAny()) {
+                // evict until the cache fits into its budget again
+            }
+        }
+    }
+
+    /**
+     * Passes every entry that has not expired yet to the given visitor, e.g. to write a snapshot.
+     */
+    public void forEachEntry(KommonsCacheEntryVisitor<K, V> visitor) {
+        realms.forEach((realmId, entries) -> entries.forEach((key, entry) -> {
+            if (!isExpired(entry)) {
+                visitor.visit(realmId, key, entry.value(), entry.writtenAt());
+            }
+        }));
+    }
+
+    /**
+     * Adds an entry that has been written at the given time, e.g. restored from a snapshot. Restored entries keep
+     * their original age, never replace present entries and never evict others.
+     *
+     * @return whether the entry has been added
+     */
+    public boolean restore(String realmId, K key, V value, long writtenAt) {
+        Entry<V> entry = new Entry<>(value, writtenAt, weigher == null ? 0 : weigher.weigh(key, value));
+        if (isExpired(entry)) {
+            return false;
+        }
+        ConcurrentMap<K, Entry<V>> entries = realms.computeIfAbsent(realmId, it -> new ConcurrentHashMap<>());
+        if (entries.size() >= maximumSize || (weigher != null && weight.get() + entry.weight() > maximumWeight)) {
+            return false;
+        }
+        if (entries.putIfAbsent(key, entry) != null) {
+            return false;
+        }
+        added(realmId, entry);
+        if (detached(realmId, entries)) {
+            discard(realmId, entries, key, entry);
+            return false;
+        }
+        return true;
+    }
+
+    public void invalidate(String realmId, K key) {
+        ConcurrentMap<K, Entry<V>> entries = realms.get(realmId);
+        if (entries != null) {
+            removed(realmId, entries.remove(key));
+        }
+    }
+
+    public void invalidateRealm(String realmId) {
+        ConcurrentMap<K, Entry<V>> entries = realms.remove(realmId);
+        if (entries != null) {
+            entries.forEach((key, entry) -> discard(realmId, entries, key, entry));
+        }
+    }
+
+    public void invalidateAll() {
+        realms.keySet().forEach(this::invalidateRealm);
+    }
+
+    /**
+     * Drops all entries and statistics of a realm that has been removed.
+     */
+    void removeRealm(String realmId) {
+        invalidateRealm(realmId);
+        counters.remove(realmId);
+    }
+
+    boolean isInvalidatedBy(String resourceType) {
+        return invalidatedBy.contains(resourceType);
+    }
+
+    void warmup(KeycloakSession session, RealmModel realm) {
+        if (warmer != null) {
+            warmer.warmup(session, realm);
+        }
+    }
+
+    /**
+     * Returns the statistics of the given realm, which never include figures of other realms.
+     */
+    public KommonsCacheStatistics statistics(String realmId) {
+        ConcurrentMap<K, Entry<V>> entries = realms.get(realmId);
+        Counters countersOfRealm = counters.getOrDefault(realmId, EMPTY_COUNTERS);
+        return KommonsCacheStatistics.of(name, entries == null ? 0 : entries.size(),
+            countersOfRealm.hits.sum(), countersOfRealm.misses.sum(), countersOfRealm.evictions.sum(), countersOfRealm.weight.get());
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return expireAfterWriteMillis > 0 && Time.currentTimeMillis() - entry.writtenAt() > expireAfterWriteMillis;
+    }
+
+    private boolean evictOne(String realmId, ConcurrentMap<K, Entry<V>> entries) {
+        for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+            // only the exact entry that has been seen is removed, never one that replaced it in the meantime
+            if (entries.remove(candidate.getKey(), candidate.getValue())) {
+                removed(realmId, candidate.getValue());
+                counters(realmId).evictions.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean evictAny() {
+        for (Map.Entry<String, ConcurrentMap<K, Entry<V>>> realm : realms.entrySet()) {
+            if (evictOne(realm.getKey(), realm.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean detached(String realmId, ConcurrentMap<K, Entry<V>> entries) {
+        return realms.get(realmId) != entries;
+    }
+
+    /**
+     * Removes the given entry unless it has been replaced or removed already. Weights are only ever subtracted by
+     * whoever succeeds in removing an entry, so they cannot drift under concurrent updates.
+     */
+    private void discard(String realmId, ConcurrentMap<K, Entry<V>> entries, K key, Entry<V> entry) {
+        if (entries.remove(key, entry)) {
+            removed(realmId, entry);
+        }
+    }
+
+    private void added(String realmId, Entry<V> entry) {
+        if (entry.weight() != 0) {
+            weight.addAndGet(entry.weight());
+            counters(realmId).weight.addAndGet(entry.weight());
+        }
+    }
+
+    private void removed(String realmId, Entry<V> entry) {
+        if (entry != null && entry.weight() != 0) {
+            weight.addAndGet(-entry.weight());
+            counters(realmId).weight.addAndGet(-entry.weight());
+        }
+    }
+
+    private Counters counters(String realmId) {
+        Counters countersOfRealm = counters.get(realmId);
+        return countersOfRealm != null ? countersOfRealm : counters.computeIfAbsent(realmId, it -> new Counters());
+    }
+
+    private static final class Counters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private final AtomicLong weight = new AtomicLong();
+    }
+
+    private record Entry<V>(V value, long writtenAt, long weight) {
+    }
+
+    public static final class Builder<K, V> {
+
+        private final String name;
+        private Integer maximumSize;
+        private long maximumWeight;
+        private KommonsCacheWeigher<K, V> weigher;
+        private Duration expireAfterWrite = Duration.ZERO;
+        private Set<String> invalidatedBy = Set.of();
+        private KommonsCacheWarmer warmer;
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Maximum number of entries per realm, defaults to 10,000 unless the cache is bounded by weight.
+         */
+        public Builder<K, V> maximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * Maximum total weight of all entries, as estimated by the given weigher.
+         */
+        public Builder<K, V> maximumWeight(long maximumWeight, KommonsCacheWeigher<K, V> weigher) {
+            this.maximumWeight = maximumWeight;
+            this.weigher = weigher;
+            return this;
+        }
+
+        public Builder<K, V> expireAfterWrite(Duration expireAfterWrite) {
+            this.expireAfterWrite = expireAfterWrite;
+            return this;
+        }
+
+        /**
+         * Admin events of the given resource types drop all entries of the affected realm.
+         */
+        public Builder<K, V> invalidatedBy(ResourceType first, ResourceType... rest) {
+            this.invalidatedBy = EnumSet.of(first, rest).stream().map(ResourceType::name).collect(Collectors.toUnmodifiableSet());
+            return this;
+        }
+
+        public Builder<K, V> warmer(KommonsCacheWarmer warmer) {
+            this.warmer = warmer;
+            return this;
+        }
+
+        /**
+         * Creates the cache and registers it with {@link KommonsCaches}.
+         */
+        public KommonsCache<K, V> build() {
+            KommonsCache<K, V> cache = new KommonsCache<>(this);
+            KommonsCaches.register(cache);
+            return cache;
+        }
+    }
+}
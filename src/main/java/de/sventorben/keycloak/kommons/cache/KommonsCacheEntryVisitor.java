@@ -0,0 +1,10 @@
+package de.sventorben.keycloak.kommons.cache;
+
+@FunctionalInterface
+public interface KommonsCacheEntryVisitor<K, V> {
+
+    /**
+     * Receives an entry along with the time it has been written, in milliseconds since the epoch.
+     */
+    void visit(String realmId, K key, V value, long writtenAt);
+}
@@ -0,0 +1,76 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.keycloak.Config;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.PostMigrationEvent;
+
+import java.time.Duration;
+
+public final class KommonsCacheInvalidationEventListener implements EventListenerProviderFactory, EventListenerProvider {
+
+    private static final String PROVIDER_ID = "kommons-cache-invalidation";
+
+    private static final int DEFAULT_WARMUP_CONCURRENCY = 4;
+    private static final long DEFAULT_WARMUP_TIMEOUT_SECONDS = 30;
+
+    private KommonsCacheWarmup warmup;
+
+    @Override
+    public void onEvent(Event event) {
+
+    }
+
+    @Override
+    public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
+        if (adminEvent.getRealmId() == null || adminEvent.getResourceTypeAsString() == null) {
+            return;
+        }
+        KommonsCaches.invalidateRealm(adminEvent.getRealmId(), adminEvent.getResourceTypeAsString());
+    }
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return this;
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        if (config.getBoolean("warmup-enabled", false)) {
+            warmup = new KommonsCacheWarmup(
+                config.getInt("warmup-concurrency", DEFAULT_WARMUP_CONCURRENCY),
+                Duration.ofSeconds(config.getLong("warmup-timeout-seconds", DEFAULT_WARMUP_TIMEOUT_SECONDS)));
+        }
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof RealmModel.RealmRemovedEvent realmRemoved) {
+                KommonsCaches.removeRealm(realmRemoved.getRealm().getId());
+            } else if (event instanceof PostMigrationEvent && warmup != null) {
+                warmup.run(factory);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    @Override
+    public boolean isGlobal() {
+        return true;
+    }
+}
@@ -0,0 +1,22 @@
+package de.sventorben.keycloak.kommons.cache;
+
+/**
+ * Snapshot of a cache's counters for a single realm. Hits, misses and evictions are counted since startup.
+ * {@code weight} is the estimated number of bytes retained by the realm's entries of caches that are bounded by
+ * weight, {@code 0} for all others.
+ */
+public record KommonsCacheStatistics(
+    String name,
+    long size,
+    long hits,
+    long misses,
+    double hitRate,
+    long evictions,
+    long weight) {
+
+    static KommonsCacheStatistics of(String name, long size, long hits, long misses, long evictions, long weight) {
+        long requests = hits + misses;
+        return new KommonsCacheStatistics(name, size, hits, misses,
+            requests == 0 ? 0 : (double) hits / requests, evictions, weight);
+    }
+}
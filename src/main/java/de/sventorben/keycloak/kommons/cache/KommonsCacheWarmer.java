@@ -0,0 +1,13 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+@FunctionalInterface
+public interface KommonsCacheWarmer {
+
+    /**
+     * Prebuilds the cache entries of the given realm.
+     */
+    void warmup(KeycloakSession session, RealmModel realm);
+}
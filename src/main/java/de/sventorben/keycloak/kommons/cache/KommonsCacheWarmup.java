@@ -0,0 +1,90 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.jboss.logging.Logger;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms up all {@link KommonsCaches registered caches} for every realm, so the first tokens issued by a freshly
+ * started node do not pay for cold lookups.
+ * <p>
+ * Realms are warmed up in parallel, each in its own session and transaction, on at most {@code concurrency} threads.
+ * Warmup gives up once the time budget is exhausted; caches of realms not warmed up by then are populated on demand.
+ */
+final class KommonsCacheWarmup {
+
+    private static final Logger LOG = Logger.getLogger(KommonsCacheWarmup.class);
+
+    private final int concurrency;
+    private final Duration timeout;
+
+    KommonsCacheWarmup(int concurrency, Duration timeout) {
+        this.concurrency = Math.max(1, concurrency);
+        this.timeout = timeout;
+    }
+
+    void run(KeycloakSessionFactory sessionFactory) {
+        long start = System.nanoTime();
+        List<String> realmIds = KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory,
+            session -> session.realms().getRealmsStream().map(RealmModel::getId).toList());
+
+        AtomicInteger warmedUp = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, realmIds.size())), new WarmupThreadFactory());
+        try {
+            realmIds.forEach(realmId -> executor.execute(() -> {
+                try {
+                    warmup(sessionFactory, realmId);
+                    warmedUp.incrementAndGet();
+                } catch (RuntimeException e) {
+                    LOG.warnf(e, "Failed to warm up Kommons caches for realm '%s'", realmId);
+                }
+            }));
+            executor.shutdown();
+            if (!executor.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+                LOG.warnf("Kommons cache warmup exceeded its time budget of %d ms, remaining realms are warmed up on demand", timeout.toMillis());
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        LOG.infof("Warmed up Kommons caches for %d of %d realms in %d ms",
+            warmedUp.get(), realmIds.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private static void warmup(KeycloakSessionFactory sessionFactory, String realmId) {
+        KeycloakModelUtils.runJobInTransaction(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            if (realm == null) {
+                return;
+            }
+            session.getContext().setRealm(realm);
+            long start = System.nanoTime();
+            KommonsCaches.warmup(session, realm);
+            LOG.debugf("Warmed up Kommons caches for realm '%s' in %d ms",
+                realm.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        });
+    }
+
+    private static final class WarmupThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "kommons-cache-warmup-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
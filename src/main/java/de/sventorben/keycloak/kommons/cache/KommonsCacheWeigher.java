@@ -0,0 +1,10 @@
+package de.sventorben.keycloak.kommons.cache;
+
+@FunctionalInterface
+public interface KommonsCacheWeigher<K, V> {
+
+    /**
+     * Returns the estimated number of bytes retained by the given entry.
+     */
+    long weigh(K key, V value);
+}
@@ -0,0 +1,60 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of all {@link KommonsCache caches}, used for statistics, warmup and invalidation across providers.
+ */
+public final class KommonsCaches {
+
+    private static final Map<String, KommonsCache<?, ?>> CACHES = new ConcurrentHashMap<>();
+
+    private KommonsCaches() {
+    }
+
+    static void register(KommonsCache<?, ?> cache) {
+        if (CACHES.putIfAbsent(cache.getName(), cache) != null) {
+            throw new IllegalStateException("Cache '" + cache.getName() + "' is already registered");
+        }
+    }
+
+    public static Collection<KommonsCache<?, ?>> all() {
+        return Collections.unmodifiableCollection(CACHES.values());
+    }
+
+    public static KommonsCache<?, ?> get(String name) {
+        return CACHES.get(name);
+    }
+
+    public static List<KommonsCacheStatistics> statistics(String realmId) {
+        return CACHES.values().stream()
+            .map(cache -> cache.statistics(realmId))
+            .sorted((a, b) -> a.name().compareTo(b.name()))
+            .toList();
+    }
+
+    public static void warmup(KeycloakSession session, RealmModel realm) {
+        CACHES.values().forEach(cache -> cache.warmup(session, realm));
+    }
+
+    public static void invalidateRealm(String realmId) {
+        CACHES.values().forEach(cache -> cache.invalidateRealm(realmId));
+    }
+
+    static void removeRealm(String realmId) {
+        CACHES.values().forEach(cache -> cache.removeRealm(realmId));
+    }
+
+    static void invalidateRealm(String realmId, String resourceType) {
+        CACHES.values().stream()
+            .filter(cache -> cache.isInvalidatedBy(resourceType))
+            .forEach(cache -> cache.invalidateRealm(realmId));
+    }
+}
@@ -1,15 +1,24 @@
 package de.sventorben.keycloak.kommons.oidc;
 
+import de.sventorben.keycloak.kommons.cache.KommonsCache;
+import de.sventorben.keycloak.kommons.telemetry.KommonsMetrics;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTimer;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTracing;
+import io.opentelemetry.api.trace.Span;
 import org.jboss.logging.Logger;
+import org.keycloak.events.admin.ResourceType;
 import org.keycloak.models.*;
 import org.keycloak.protocol.ProtocolMapperConfigException;
 import org.keycloak.protocol.oidc.mappers.*;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.representations.IDToken;
+import org.keycloak.tracing.TracingProviderUtil;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Stream;
 
 import static org.keycloak.models.Constants.CFG_DELIMITER;
 import static org.keycloak.protocol.oidc.mappers.OIDCAttributeMapperHelper.INCLUDE_IN_INTROSPECTION;
@@ -24,6 +33,13 @@ public final class MultiClientAttributesClaimMapper extends AbstractOIDCProtocol
     private static final String CLAIM_NAMES_CONFIG = "kommons.client.attr.claim.names";
     private static final String CLIENT_ATTR_NAMES_CONFIG = "kommons.client.attr.attribute.names";
 
+    private static final KommonsTimer SET_CLAIM_TIMER = KommonsMetrics.mapperTimer(PROVIDER_ID);
+
+    private static final KommonsCache<RawMappingConfig, MappingConfig> MAPPING_CONFIGS = KommonsCache.<RawMappingConfig, MappingConfig>builder("client-attributes-mapper-configs")
+        .invalidatedBy(ResourceType.PROTOCOL_MAPPER, ResourceType.CLIENT, ResourceType.CLIENT_SCOPE, ResourceType.REALM)
+        .warmer(MultiClientAttributesClaimMapper::warmupMappingConfigs)
+        .build();
+
     @Override
     public String getDisplayCategory() {
         return TOKEN_MAPPER_CATEGORY;
@@ -81,8 +97,21 @@ public final class MultiClientAttributesClaimMapper extends AbstractOIDCProtocol
 
     @Override
     protected void setClaim(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
-        List<String> claimNames = parseList(mappingModel, CLAIM_NAMES_CONFIG);
-        List<String> attrNames = parseList(mappingModel, CLIENT_ATTR_NAMES_CONFIG);
+        long start = SET_CLAIM_TIMER.start();
+        try {
+            TracingProviderUtil.getTracingProvider(keycloakSession).trace(MultiClientAttributesClaimMapper.class, "mapClientAttributes", span -> {
+                span.setAttribute(KommonsTracing.MAPPER_NAME, mappingModel.getName());
+                mapClientAttributes(token, mappingModel, userSession, clientSessionCtx, span);
+            });
+        } finally {
+            SET_CLAIM_TIMER.stop(userSession.getRealm().getName(), mappingModel.getName(), start);
+        }
+    }
+
+    private static void mapClientAttributes(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, ClientSessionContext clientSessionCtx, Span span) {
+        MappingConfig mappingConfig = mappingConfig(userSession.getRealm(), mappingModel);
+        List<String> claimNames = mappingConfig.claimNames();
+        List<String> attrNames = mappingConfig.attrNames();
 
         if (claimNames.size() != attrNames.size()) {
             LOG.warnf("Mapper '%s': claim names list size (%d) != attribute names list size (%d). Skipping. (mapper id: %s, realm: %s)",
@@ -91,6 +120,9 @@ public final class MultiClientAttributesClaimMapper extends AbstractOIDCProtocol
         }
 
         ClientModel client = clientSessionCtx.getClientSession().getClient();
+        span.setAttribute(KommonsTracing.ATTRIBUTE_COUNT, attrNames.size());
+        long claimCount = 0;
+        long claimBytes = 0;
 
         for (int i = 0; i < claimNames.size(); i++) {
             String claimName = claimNames.get(i);
@@ -108,11 +140,38 @@ public final class MultiClientAttributesClaimMapper extends AbstractOIDCProtocol
                 OIDCAttributeMapperHelper.includeInAccessToken(mappingModel), OIDCAttributeMapperHelper.includeInIDToken(mappingModel), OIDCAttributeMapperHelper.includeInIntrospection(mappingModel));
             perClaimModel.getConfig().putIfAbsent(INCLUDE_IN_INTROSPECTION, Boolean.toString(OIDCAttributeMapperHelper.includeInIntrospection(mappingModel)));
             OIDCAttributeMapperHelper.mapClaim(token, perClaimModel, attrValue);
+            claimCount++;
+            if (span.isRecording()) {
+                claimBytes += attrValue.getBytes(StandardCharsets.UTF_8).length;
+            }
         }
+
+        span.setAttribute(KommonsTracing.CLAIM_COUNT, claimCount);
+        span.setAttribute(KommonsTracing.CLAIM_BYTES, claimBytes);
+    }
+
+    /**
+     * Returns the parsed lists of the mapper's configuration. Entries are keyed by the raw configuration they have been
+     * parsed from, so an updated mapper never sees outdated lists, and a single lookup replaces parsing.
+     */
+    private static MappingConfig mappingConfig(RealmModel realm, ProtocolMapperModel mappingModel) {
+        RawMappingConfig raw = new RawMappingConfig(mappingModel.getConfig().get(CLAIM_NAMES_CONFIG), mappingModel.getConfig().get(CLIENT_ATTR_NAMES_CONFIG));
+        return MAPPING_CONFIGS.get(realm.getId(), raw, RawMappingConfig::parse);
+    }
+
+    private static void warmupMappingConfigs(KeycloakSession session, RealmModel realm) {
+        Stream.concat(
+                realm.getClientScopesStream().flatMap(ClientScopeModel::getProtocolMappersStream),
+                realm.getClientsStream().flatMap(ClientModel::getProtocolMappersStream))
+            .filter(mapper -> PROVIDER_ID.equals(mapper.getProtocolMapper()))
+            .forEach(mapper -> mappingConfig(realm, mapper));
     }
 
     private static List<String> parseList(ProtocolMapperModel model, String configKey) {
-        String raw = model.getConfig().get(configKey);
+        return parseList(model.getConfig().get(configKey));
+    }
+
+    private static List<String> parseList(String raw) {
         if (raw == null || raw.isBlank()) {
             return List.of();
         }
@@ -143,4 +202,14 @@ public final class MultiClientAttributesClaimMapper extends AbstractOIDCProtocol
         }
         return "String";
     }
+
+    private record RawMappingConfig(String claimNames, String attrNames) {
+
+        MappingConfig parse() {
+            return new MappingConfig(parseList(claimNames), parseList(attrNames));
+        }
+    }
+
+    private record MappingConfig(List<String> claimNames, List<String> attrNames) {
+    }
 }
@@ -1,14 +1,19 @@
 package de.sventorben.keycloak.kommons.orgs;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+import de.sventorben.keycloak.kommons.cache.KommonsCache;
+import de.sventorben.keycloak.kommons.telemetry.KommonsMetrics;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTimer;
+import de.sventorben.keycloak.kommons.telemetry.KommonsTracing;
+import io.opentelemetry.api.trace.Span;
 import org.jboss.logging.Logger;
 import org.keycloak.Config;
 import org.keycloak.OAuth2Constants;
 import org.keycloak.common.Profile;
+import org.keycloak.events.admin.ResourceType;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.ModelToRepresentation;
 import org.keycloak.models.utils.RepresentationToModel;
@@ -19,7 +24,10 @@ import org.keycloak.protocol.oidc.mappers.*;
 import org.keycloak.provider.EnvironmentDependentProviderFactory;
 import org.keycloak.provider.ProviderConfigProperty;
 import org.keycloak.representations.IDToken;
+import org.keycloak.tracing.TracingProvider;
+import org.keycloak.tracing.TracingProviderUtil;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.stream.Stream;
 
@@ -32,13 +40,23 @@ public final class OidcOrgsGroupMapperFactory extends AbstractOIDCProtocolMapper
 
     private static final String PROVIDER_ID = "kommons-orgs-group-mapper";
 
-    private static final String ROOT_GROUP_NAME = "organizations";
-
     private static final String CONFIG_PREFIX_GROUPS = "kommons.prefix.groups.with.organization";
     private static final String CONFIG_FLAT_GROUPS = "kommons.emit.flattened.group.claim";
+    private static final String CONFIG_MAX_ORGANIZATIONS = "kommons.max.organizations";
+    private static final String CONFIG_OVERFLOW_CLAIM = "kommons.organizations.overflow.claim";
+    private static final String CONFIG_PARALLELISM = "kommons.organizations.parallelism";
 
     private static final String CLAIM_ORGANIZATION = "organization";
     private static final String CLAIM_GROUPS = "groups";
+    private static final String CLAIM_OVERFLOW = "organization_overflow";
+
+    private static final KommonsTimer SET_CLAIM_TIMER = KommonsMetrics.mapperTimer(PROVIDER_ID);
+
+    private static final KommonsCache<String, ClaimNameSource> CLAIM_NAMES = KommonsCache.<String, ClaimNameSource>builder("orgs-group-mapper-claim-names")
+        .expireAfterWrite(Duration.ofMinutes(5))
+        .invalidatedBy(ResourceType.CLIENT_SCOPE, ResourceType.PROTOCOL_MAPPER, ResourceType.REALM)
+        .warmer(OidcOrgsGroupMapperFactory::warmupClaimNames)
+        .build();
 
     public OidcOrgsGroupMapperFactory() {
     }
@@ -81,6 +99,30 @@ public final class OidcOrgsGroupMapperFactory extends AbstractOIDCProtocolMapper
         prefixGroupsProp.setRequired(true);
         properties.add(flatGroupsProp);
 
+        ProviderConfigProperty maxOrganizationsProp = new ProviderConfigProperty();
+        maxOrganizationsProp.setName(CONFIG_MAX_ORGANIZATIONS);
+        maxOrganizationsProp.setLabel("Maximum organizations");
+        maxOrganizationsProp.setHelpText("Maximum number of organizations whose groups are added to the token. Organizations are taken in alphabetical order of their alias. 0 means no limit.");
+        maxOrganizationsProp.setType(ProviderConfigProperty.INTEGER_TYPE);
+        maxOrganizationsProp.setDefaultValue("0");
+        properties.add(maxOrganizationsProp);
+
+        ProviderConfigProperty overflowClaimProp = new ProviderConfigProperty();
+        overflowClaimProp.setName(CONFIG_OVERFLOW_CLAIM);
+        overflowClaimProp.setLabel("Overflow claim name");
+        overflowClaimProp.setHelpText("Name of the boolean claim that is set to true if the groups of some organizations have been omitted due to the maximum number of organizations.");
+        overflowClaimProp.setType(ProviderConfigProperty.STRING_TYPE);
+        overflowClaimProp.setDefaultValue(CLAIM_OVERFLOW);
+        properties.add(overflowClaimProp);
+
+        ProviderConfigProperty parallelismProp = new ProviderConfigProperty();
+        parallelismProp.setName(CONFIG_PARALLELISM);
+        parallelismProp.setLabel("Parallel group resolution");
+        parallelismProp.setHelpText("Number of threads used to resolve the groups of a user who has not been indexed yet. Only worthwhile if groups are stored remotely, e.g. in LDAP. 1 resolves them sequentially.");
+        parallelismProp.setType(ProviderConfigProperty.INTEGER_TYPE);
+        parallelismProp.setDefaultValue("1");
+        properties.add(parallelismProp);
+
         return properties;
     }
 
@@ -103,36 +145,46 @@ public final class OidcOrgsGroupMapperFactory extends AbstractOIDCProtocolMapper
 
     @Override
     protected void setClaim(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx) {
+        long start = SET_CLAIM_TIMER.start();
+        try {
+            TracingProvider tracing = TracingProviderUtil.getTracingProvider(keycloakSession);
+            tracing.trace(OidcOrgsGroupMapperFactory.class, "setClaim", span -> {
+                span.setAttribute(KommonsTracing.MAPPER_NAME, mappingModel.getName());
+                mapOrganizationGroups(token, mappingModel, userSession, keycloakSession, clientSessionCtx, tracing, span);
+            });
+        } finally {
+            SET_CLAIM_TIMER.stop(keycloakSession.getContext().getRealm().getName(), mappingModel.getName(), start);
+        }
+    }
+
+    private void mapOrganizationGroups(IDToken token, ProtocolMapperModel mappingModel, UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx, TracingProvider tracing, Span mapperSpan) {
         RealmModel realm = keycloakSession.getContext().getRealm();
         if (!realm.isOrganizationsEnabled()) {
             return;
         }
 
-        String claimName = keycloakSession.getContext().getRealm().getClientScopesStream()
-            .filter(scope -> scope.getProtocolMappersStream().anyMatch(mapper -> mapper.getId().equals(mappingModel.getId())))
-            .flatMap(scope -> scope.getProtocolMappersStream())
-            .filter(mapper -> mapper.getProtocolMapper().equals(OrganizationMembershipMapper.PROVIDER_ID))
-            .findFirst()
-            .map(mapper -> mapper.getConfig().get("claim.name"))
-            .orElse(CLAIM_ORGANIZATION);
-
+        String claimName = tracing.trace(OidcOrgsGroupMapperFactory.class, "resolveClaimName", span -> {
+            String name = resolveCachedClaimName(realm, mappingModel);
+            span.setAttribute(KommonsTracing.CLAIM_NAME, name);
+            return name;
+        });
 
-        final GroupModel organizations = keycloakSession.groups().getGroupByName(realm, null, ROOT_GROUP_NAME);
-        if (organizations == null) {
+        final List<String> organizationAliases = OrgGroupMembershipIndex.organizationAliases(keycloakSession, realm);
+        if (organizationAliases == null) {
             ClientModel client = clientSessionCtx.getClientSession().getClient();
-            LOG.warnf("Root group `%s` does not exist but mapper configured in realm %s, client %", ROOT_GROUP_NAME, client.getRealm().getName(), client.getName());
+            LOG.warnf("Root group `%s` does not exist but mapper configured in realm %s, client %", OrgGroupMembershipIndex.ROOT_GROUP_NAME, client.getRealm().getName(), client.getName());
             return;
         }
 
-        String orgId = clientSessionCtx.getClientSession().getNote(OrganizationModel.ORGANIZATION_ATTRIBUTE);
-        Stream<OrganizationModel> requestedOrganizations;
-        requestedOrganizations = resolveRequestedOrganizations(userSession, keycloakSession, clientSessionCtx, orgId);
-
-        final List<String> requestedOrganizationAliases = requestedOrganizations.map(OrganizationModel::getAlias).toList();
+        final List<String> requestedOrganizationAliases = tracing.trace(OidcOrgsGroupMapperFactory.class, "resolveOrganizations", span -> {
+            String orgId = clientSessionCtx.getClientSession().getNote(OrganizationModel.ORGANIZATION_ATTRIBUTE);
+            List<String> aliases = resolveRequestedOrganizations(userSession, keycloakSession, clientSessionCtx, orgId)
+                .map(OrganizationModel::getAlias).toList();
+            span.setAttribute(KommonsTracing.ORGANIZATION_COUNT, aliases.size());
+            return aliases;
+        });
 
-        List<GroupModel> orgGroups = organizations.getSubGroupsStream()
-            .filter(tenantRootGroup -> requestedOrganizationAliases.contains(tenantRootGroup.getName())).toList();
-        ObjectNode organizationClaims = new ObjectMapper().createObjectNode();
+        ObjectNode organizationClaims = JsonNodeFactory.instance.objectNode();
         if (token.getOtherClaims().containsKey(claimName)) {
             Object existingClaim = token.getOtherClaims().get(claimName);
             if (existingClaim != null && !((JsonNode) existingClaim).isObject()) {
@@ -146,39 +198,114 @@ public final class OidcOrgsGroupMapperFactory extends AbstractOIDCProtocolMapper
 
         boolean prefixGroupNames = isPrefixGroups(mappingModel);
         boolean flatGroupClaim = isFlatGroups(mappingModel);
+        OrganizationSelection selection = OrganizationSelection.of(organizationAliases, requestedOrganizationAliases, getMaxOrganizations(mappingModel));
+        if (selection.overflow()) {
+            token.setOtherClaims(getOverflowClaim(mappingModel), true);
+        }
 
-        ArrayNode flatGroups = new ObjectMapper().createArrayNode();
-
-        for (GroupModel orgGroup : orgGroups) {
-            String orgAlias = orgGroup.getName();
-
-            List<String> userGroupNames = orgGroup.getSubGroupsStream()
-                .filter(group -> userSession.getUser().isMemberOf(group))
-                .map(group -> prefixGroupNames ? orgAlias + "_" + group.getName() : group.getName())
+        List<OrganizationGroups> selectedGroups = tracing.trace(OidcOrgsGroupMapperFactory.class, "collectGroups", span -> {
+            Map<String, OrganizationGroups> indexedGroups = OrgGroupMembershipIndex.groupsByOrganization(keycloakSession, realm, userSession.getUser(), selection.aliases(), getParallelism(mappingModel));
+            List<OrganizationGroups> groups = selection.aliases().stream()
+                .map(alias -> indexedGroups.getOrDefault(alias, OrganizationGroups.EMPTY))
                 .toList();
+            span.setAttribute(KommonsTracing.ORGANIZATION_COUNT, groups.size());
+            span.setAttribute(KommonsTracing.GROUP_COUNT, groups.stream().mapToInt(it -> it.names().size()).sum());
+            return groups;
+        });
+
+        // the JSON arrays are immutable and shared by all tokens, so other mappers cannot modify other tokens' claims
+        if (flatGroupClaim) {
+            if (selectedGroups.stream().anyMatch(groups -> !groups.isEmpty())) {
+                RawValue flatGroups = OrganizationGroups.concat(selectedGroups, prefixGroupNames);
+                token.setOtherClaims(CLAIM_GROUPS, flatGroups);
+                KommonsTracing.setClaimBytes(mapperSpan, flatGroups);
+            } else if (!token.getOtherClaims().containsKey(claimName)) {
+                token.setOtherClaims(claimName, organizationClaims);
+            }
+            return;
+        }
 
-            if (flatGroupClaim) {
-                userGroupNames.forEach(flatGroups::add);
-            } else {
-                ObjectNode orgClaims = organizationClaims.has(orgAlias)
-                    ? (ObjectNode) organizationClaims.get(orgAlias)
-                    : new ObjectMapper().createObjectNode();
+        for (int i = 0; i < selectedGroups.size(); i++) {
+            String orgAlias = selection.aliases().get(i);
+            ObjectNode orgClaims = organizationClaims.has(orgAlias)
+                ? (ObjectNode) organizationClaims.get(orgAlias)
+                : JsonNodeFactory.instance.objectNode();
 
-                ArrayNode groupsForOrg = new ObjectMapper().createArrayNode();
-                userGroupNames.stream().map(TextNode::new).forEach(groupsForOrg::add);
-                orgClaims.set(CLAIM_GROUPS, groupsForOrg);
+            orgClaims.putRawValue(CLAIM_GROUPS, selectedGroups.get(i).json(prefixGroupNames));
 
-                if (!organizationClaims.has(orgAlias)) {
-                    organizationClaims.set(orgAlias, orgClaims);
-                }
+            if (!organizationClaims.has(orgAlias)) {
+                organizationClaims.set(orgAlias, orgClaims);
             }
         }
 
-        if (flatGroupClaim && flatGroups.size() > 0) {
-            token.setOtherClaims(CLAIM_GROUPS, flatGroups);
-        } else if (!token.getOtherClaims().containsKey(claimName)) {
+        if (!token.getOtherClaims().containsKey(claimName)) {
             token.setOtherClaims(claimName, organizationClaims);
         }
+        KommonsTracing.setClaimBytes(mapperSpan, organizationClaims);
+    }
+
+    /**
+     * Returns the claim name of the organization membership mapper next to the given mapper. Cached claim names are
+     * validated against that mapper on every read, which is part of Keycloak's realm cache and thus current on all
+     * nodes of a cluster, whereas admin events only invalidate the cache of the node that handled them.
+     */
+    private static String resolveCachedClaimName(RealmModel realm, ProtocolMapperModel mappingModel) {
+        if (mappingModel.getId() == null) {
+            return resolveClaimName(realm, mappingModel).claimName();
+        }
+        ClaimNameSource cached = CLAIM_NAMES.getIfPresent(realm.getId(), mappingModel.getId());
+        if (cached != null && cached.isCurrent(realm)) {
+            return cached.claimName();
+        }
+        ClaimNameSource resolved = resolveClaimName(realm, mappingModel);
+        CLAIM_NAMES.put(realm.getId(), mappingModel.getId(), resolved);
+        return resolved.claimName();
+    }
+
+    private static ClaimNameSource resolveClaimName(RealmModel realm, ProtocolMapperModel mappingModel) {
+        return realm.getClientScopesStream()
+            .filter(scope -> scope.getProtocolMappersStream().anyMatch(mapper -> mapper.getId().equals(mappingModel.getId())))
+            .findFirst()
+            .map(scope -> scope.getProtocolMappersStream()
+                .filter(mapper -> mapper.getProtocolMapper().equals(OrganizationMembershipMapper.PROVIDER_ID))
+                .findFirst()
+                .map(mapper -> new ClaimNameSource(scope.getId(), mapper.getId(), mapper.getConfig().get("claim.name")))
+                .orElseGet(() -> new ClaimNameSource(scope.getId(), null, null)))
+            .orElseGet(() -> new ClaimNameSource(null, null, null));
+    }
+
+    private static void warmupClaimNames(KeycloakSession session, RealmModel realm) {
+        realm.getClientScopesStream()
+            .flatMap(ClientScopeModel::getProtocolMappersStream)
+            .filter(mapper -> PROVIDER_ID.equals(mapper.getProtocolMapper()))
+            .forEach(mapper -> CLAIM_NAMES.get(realm.getId(), mapper.getId(), id -> resolveClaimName(realm, mapper)));
+    }
+
+    /**
+     * The claim name and where it has been read from: the organization membership mapper of the client scope that
+     * contains the group mapper, or none if the default claim name applies.
+     */
+    private record ClaimNameSource(String clientScopeId, String membershipMapperId, String configuredClaimName) {
+
+        String claimName() {
+            return configuredClaimName != null ? configuredClaimName : CLAIM_ORGANIZATION;
+        }
+
+        boolean isCurrent(RealmModel realm) {
+            if (clientScopeId == null) {
+                // mappers never move, one that is not part of a client scope never will be
+                return true;
+            }
+            ClientScopeModel scope = realm.getClientScopeById(clientScopeId);
+            if (scope == null) {
+                return false;
+            }
+            if (membershipMapperId == null) {
+                return scope.getProtocolMappersStream().noneMatch(mapper -> OrganizationMembershipMapper.PROVIDER_ID.equals(mapper.getProtocolMapper()));
+            }
+            ProtocolMapperModel membershipMapper = scope.getProtocolMapperById(membershipMapperId);
+            return membershipMapper != null && Objects.equals(configuredClaimName, membershipMapper.getConfig().get("claim.name"));
+        }
     }
 
     private Stream<OrganizationModel> resolveRequestedOrganizations(UserSessionModel userSession, KeycloakSession keycloakSession, ClientSessionContext clientSessionCtx, String orgId) {
@@ -233,4 +360,30 @@ public final class OidcOrgsGroupMapperFactory extends AbstractOIDCProtocolMapper
     private boolean isFlatGroups(ProtocolMapperModel model) {
         return Boolean.parseBoolean(model.getConfig().getOrDefault(CONFIG_FLAT_GROUPS, Boolean.FALSE.toString()));
     }
+
+    private int getMaxOrganizations(ProtocolMapperModel model) {
+        return parseInt(model, CONFIG_MAX_ORGANIZATIONS, 0);
+    }
+
+    private int getParallelism(ProtocolMapperModel model) {
+        return parseInt(model, CONFIG_PARALLELISM, 1);
+    }
+
+    private String getOverflowClaim(ProtocolMapperModel model) {
+        String claim = model.getConfig().get(CONFIG_OVERFLOW_CLAIM);
+        return claim == null || claim.isBlank() ? CLAIM_OVERFLOW : claim;
+    }
+
+    private static int parseInt(ProtocolMapperModel model, String configKey, int defaultValue) {
+        String value = model.getConfig().get(configKey);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warnf("Mapper '%s': invalid value '%s' of '%s', using %d", model.getName(), value, configKey, defaultValue);
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,403 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import de.sventorben.keycloak.kommons.cache.KommonsCache;
+import org.jboss.logging.Logger;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+/**
+ * Per-realm index of the groups a user is a member of below the {@value #ROOT_GROUP_NAME} root group, i.e.
+ * user id &rarr; (organization alias &rarr; group names), plus the ordered list of organization groups. Group names
+ * are kept along with their JSON arrays, which all tokens share (see {@link OrganizationGroups}), and the index is
+ * bounded by the estimated memory retained by its entries.
+ * <p>
+ * Entries are node-local, but carry a version stamp built from the realm attribute and the user attribute
+ * {@value #VERSION_ATTRIBUTE}. {@link OrgGroupMembershipIndexEventListener} bumps the user's stamp on membership
+ * changes, no matter whether they are made via the Admin API, by identity provider mappers or by user federation,
+ * and the realm's stamp on changes of the organization groups. Users of read-only stores cannot be stamped, their
+ * changes bump the realm's stamp instead. Both attributes are part of Keycloak's realm and user caches, which are
+ * invalidated on every node of a cluster, so no node ever serves an entry whose stamp is outdated.
+ */
+public final class OrgGroupMembershipIndex {
+
+    private static final Logger LOG = Logger.getLogger(OrgGroupMembershipIndex.class);
+
+    static final String ROOT_GROUP_NAME = "organizations";
+    static final String VERSION_ATTRIBUTE = "kommons.orgGroups.version";
+
+    private static final String EXECUTOR = "kommons-orgs-group-resolution";
+
+    private static final Duration EXPIRE_AFTER_WRITE = Duration.ofMinutes(10);
+
+    private static final KommonsCache<String, Layout> LAYOUTS = KommonsCache.<String, Layout>builder("orgs-group-layout")
+        .expireAfterWrite(EXPIRE_AFTER_WRITE)
+        .build();
+
+    private static final long MAXIMUM_WEIGHT = 64L * 1024 * 1024;
+
+    private static final KommonsCache<String, Entry> MEMBERSHIPS = KommonsCache.<String, Entry>builder("orgs-group-membership-index")
+        .maximumWeight(MAXIMUM_WEIGHT, (userId, entry) -> 2L * userId.length() + entry.weight())
+        .expireAfterWrite(EXPIRE_AFTER_WRITE)
+        .warmer(OrgGroupMembershipIndex::build)
+        .build();
+
+    private OrgGroupMembershipIndex() {
+    }
+
+    /**
+     * Returns the aliases of all organization groups in their natural order, or {@code null} if the realm has no
+     * {@value #ROOT_GROUP_NAME} root group.
+     */
+    static List<String> organizationAliases(KeycloakSession session, RealmModel realm) {
+        String version = realmVersion(realm);
+        Layout layout = LAYOUTS.getIfPresent(realm.getId(), ROOT_GROUP_NAME);
+        if (layout != null && layout.version().equals(version)) {
+            return layout.organizationAliases();
+        }
+        GroupModel root = rootGroup(session, realm);
+        if (root == null) {
+            return null;
+        }
+        layout = new Layout(version, root.getSubGroupsStream().map(GroupModel::getName).toList());
+        LAYOUTS.put(realm.getId(), ROOT_GROUP_NAME, layout);
+        return layout.organizationAliases();
+    }
+
+    /**
+     * Returns the user's groups per organization alias, covering at least the given organizations. Organizations
+     * without any of the user's groups are omitted.
+     * <p>
+     * Memberships of a user that is not indexed yet are resolved for all organizations with a single query if the user
+     * is stored via JPA (see {@link OrgGroupMembershipJpaRepository}). Otherwise they are resolved via the model API
+     * for the given organizations only, on up to {@code parallelism} threads, each covering a share of the
+     * organizations in its own session, which pays off if the group storage is remote and its latency dominates. The
+     * entry then records the organizations it covers, and later requests for other organizations extend it.
+     */
+    static Map<String, OrganizationGroups> groupsByOrganization(KeycloakSession session, RealmModel realm, UserModel user, Collection<String> organizationAliases, int parallelism) {
+        // the stamp is read before the memberships, so a concurrent change can never be stored under its new stamp
+        String version = version(realmVersion(realm), user);
+        Entry entry = MEMBERSHIPS.getIfPresent(realm.getId(), user.getId());
+        if (entry != null && !entry.version().equals(version)) {
+            entry = null;
+        }
+        if (entry != null && entry.covers(organizationAliases)) {
+            return entry.groupsByOrganization();
+        }
+        GroupModel root = rootGroup(session, realm);
+        if (root == null) {
+            return Map.of();
+        }
+        Map<String, List<String>> groupNames = OrgGroupMembershipJpaRepository.findGroupNamesByOrganization(session, realm, user, root);
+        if (groupNames != null) {
+            entry = Entry.of(version, Map.of(), groupNames, null);
+        } else {
+            entry = extend(session, realm, user, root, version, entry, organizationAliases, parallelism);
+        }
+        MEMBERSHIPS.put(realm.getId(), user.getId(), entry);
+        return entry.groupsByOrganization();
+    }
+
+    /**
+     * Resolves the memberships of the given organizations that the entry does not cover yet via the model API and
+     * returns the entry extended by them.
+     */
+    private static Entry extend(KeycloakSession session, RealmModel realm, UserModel user, GroupModel root, String version, Entry entry, Collection<String> organizationAliases, int parallelism) {
+        Set<String> covered = entry == null ? Set.of() : entry.coveredOrganizations();
+        Set<String> requested = new HashSet<>(organizationAliases);
+        List<GroupModel> allOrganizationGroups = root.getSubGroupsStream().toList();
+        List<GroupModel> organizationGroups = allOrganizationGroups.stream()
+            .filter(organizationGroup -> requested.contains(organizationGroup.getName()) && !covered.contains(organizationGroup.getName()))
+            .toList();
+        Map<String, List<String>> groupNames = parallelism > 1 && organizationGroups.size() > 1
+            ? collectInParallel(session, realm, user, organizationGroups, parallelism)
+            : collect(user, organizationGroups);
+
+        Set<String> coveredOrganizations = new HashSet<>(covered);
+        organizationGroups.forEach(organizationGroup -> coveredOrganizations.add(organizationGroup.getName()));
+        boolean complete = allOrganizationGroups.stream().allMatch(organizationGroup -> coveredOrganizations.contains(organizationGroup.getName()));
+        return Entry.of(version, entry == null ? Map.of() : entry.groupsByOrganization(), groupNames, complete ? null : Set.copyOf(coveredOrganizations));
+    }
+
+    /**
+     * Discards the index of the realm on all nodes and rebuilds it on this node from the members of all organization
+     * groups.
+     *
+     * @return the number of indexed users
+     */
+    public static int rebuild(KeycloakSession session, RealmModel realm) {
+        realmChanged(realm);
+        return build(session, realm);
+    }
+
+    /**
+     * Writes all index entries that have not expired yet and cover all organizations to the given snapshot file.
+     *
+     * @return the number of written entries
+     */
+    static int writeSnapshot(Path file) throws IOException {
+        Map<String, List<OrgGroupMembershipSnapshot.Entry>> entriesByRealm = new HashMap<>();
+        MEMBERSHIPS.forEachEntry((realmId, userId, entry, writtenAt) -> {
+            if (entry.isComplete()) {
+                entriesByRealm
+                    .computeIfAbsent(realmId, it -> new ArrayList<>())
+                    .add(new OrgGroupMembershipSnapshot.Entry(userId, entry.version(), writtenAt, entry.groupNamesByOrganization()));
+            }
+        });
+        OrgGroupMembershipSnapshot.write(file, Time.currentTimeMillis(), entriesByRealm);
+        return entriesByRealm.values().stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * Restores the index from the given snapshot, see {@link OrgGroupMembershipSnapshot#read(Path)}. Entries keep their original age, so they expire just like they
+     * would have on the node that wrote them. Realms that no longer exist are skipped, and so are entries of realms
+     * whose stamp has changed since. Entries of users whose stamp has changed are restored, but never served, as their
+     * stamp is checked on every read.
+     *
+     * @return the number of restored entries
+     */
+    static int restoreSnapshot(KeycloakSession session, OrgGroupMembershipSnapshot.Content snapshot) {
+        if (Time.currentTimeMillis() - snapshot.createdAt() > EXPIRE_AFTER_WRITE.toMillis()) {
+            return 0;
+        }
+        int restored = 0;
+        for (Map.Entry<String, List<OrgGroupMembershipSnapshot.Entry>> realmEntries : snapshot.entriesByRealm().entrySet()) {
+            RealmModel realm = session.realms().getRealm(realmEntries.getKey());
+            if (realm == null || !realm.isOrganizationsEnabled()) {
+                continue;
+            }
+            String realmVersionPrefix = realmVersion(realm) + "/";
+            for (OrgGroupMembershipSnapshot.Entry entry : realmEntries.getValue()) {
+                if (entry.version().startsWith(realmVersionPrefix)
+                    && MEMBERSHIPS.restore(realm.getId(), entry.userId(), Entry.of(entry.version(), Map.of(), entry.groupNamesByOrganization(), null), entry.writtenAt())) {
+                    restored++;
+                }
+            }
+        }
+        return restored;
+    }
+
+    static void userChanged(RealmModel realm, UserModel user) {
+        MEMBERSHIPS.invalidate(realm.getId(), user.getId());
+        try {
+            user.setSingleAttribute(VERSION_ATTRIBUTE, KeycloakModelUtils.generateId());
+        } catch (RuntimeException e) {
+            // e.g. a ReadOnlyException for users of a read-only user storage, which is no ModelException
+            LOG.debugf(e, "Cannot stamp user '%s' in realm '%s', invalidating organization groups of the whole realm", user.getId(), realm.getName());
+            realmChanged(realm);
+        }
+    }
+
+    static void realmChanged(RealmModel realm) {
+        invalidateLocally(realm.getId());
+        realm.setAttribute(VERSION_ATTRIBUTE, KeycloakModelUtils.generateId());
+    }
+
+    static void invalidateLocally(String realmId, String userId) {
+        MEMBERSHIPS.invalidate(realmId, userId);
+    }
+
+    static void invalidateLocally(String realmId) {
+        LAYOUTS.invalidateRealm(realmId);
+        MEMBERSHIPS.invalidateRealm(realmId);
+    }
+
+    static boolean isOrganizationGroup(GroupModel group) {
+        GroupModel root = group;
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        return ROOT_GROUP_NAME.equals(root.getName());
+    }
+
+    private static int build(KeycloakSession session, RealmModel realm) {
+        if (!realm.isOrganizationsEnabled()) {
+            return 0;
+        }
+        String realmVersion = realmVersion(realm);
+        List<String> organizationAliases = organizationAliases(session, realm);
+        GroupModel root = rootGroup(session, realm);
+        if (organizationAliases == null || root == null) {
+            return 0;
+        }
+
+        Map<String, UserModel> users = new HashMap<>();
+        Map<String, Map<String, List<String>>> groupNamesByUser = new HashMap<>();
+        root.getSubGroupsStream().forEach(organizationGroup -> organizationGroup.getSubGroupsStream().forEach(group -> {
+            Set<String> memberIds = new LinkedHashSet<>();
+            withSubGroups(group)
+                .flatMap(it -> session.users().getGroupMembersStream(realm, it))
+                .forEach(member -> {
+                    users.putIfAbsent(member.getId(), member);
+                    memberIds.add(member.getId());
+                });
+            memberIds.forEach(memberId -> groupNamesByUser
+                .computeIfAbsent(memberId, it -> new LinkedHashMap<>())
+                .computeIfAbsent(organizationGroup.getName(), it -> new ArrayList<>())
+                .add(group.getName()));
+        }));
+
+        groupNamesByUser.forEach((userId, groupNames) ->
+            MEMBERSHIPS.put(realm.getId(), userId, Entry.of(version(realmVersion, users.get(userId)), Map.of(), groupNames, null)));
+        return groupNamesByUser.size();
+    }
+
+    private static Map<String, List<String>> collect(UserModel user, List<GroupModel> organizationGroups) {
+        Map<String, List<String>> groupNames = new LinkedHashMap<>();
+        organizationGroups.forEach(organizationGroup -> {
+            List<String> names = organizationGroup.getSubGroupsStream()
+                .filter(user::isMemberOf)
+                .map(GroupModel::getName)
+                .toList();
+            if (!names.isEmpty()) {
+                groupNames.put(organizationGroup.getName(), names);
+            }
+        });
+        return groupNames;
+    }
+
+    /**
+     * Splits the organizations into {@code parallelism} shares. All but the first share are submitted to Keycloak's
+     * executor, the first one is resolved by the calling thread, which afterwards also takes over every share that no
+     * worker has started yet. Thus a saturated executor delays, but never blocks token issuance. Shares that a worker
+     * fails to resolve, e.g. because the user is not visible to its session yet, are resolved by the calling thread, so
+     * the result is always complete.
+     */
+    private static Map<String, List<String>> collectInParallel(KeycloakSession session, RealmModel realm, UserModel user, List<GroupModel> organizationGroups, int parallelism) {
+        int shares = Math.min(parallelism, organizationGroups.size());
+        int shareSize = (organizationGroups.size() + shares - 1) / shares;
+        List<List<GroupModel>> partitions = new ArrayList<>();
+        for (int from = 0; from < organizationGroups.size(); from += shareSize) {
+            partitions.add(organizationGroups.subList(from, Math.min(from + shareSize, organizationGroups.size())));
+        }
+
+        ExecutorService executor = session.getProvider(ExecutorsProvider.class).getExecutor(EXECUTOR);
+        KeycloakSessionFactory sessionFactory = session.getKeycloakSessionFactory();
+        // the adapters of the request's session are not thread-safe, workers only ever receive plain values
+        String realmId = realm.getId();
+        String userId = user.getId();
+        List<AtomicBoolean> claims = new ArrayList<>();
+        List<Future<Map<String, List<String>>>> futures = new ArrayList<>();
+        for (List<GroupModel> partition : partitions.subList(1, partitions.size())) {
+            List<String> groupIds = partition.stream().map(GroupModel::getId).toList();
+            AtomicBoolean claim = new AtomicBoolean();
+            claims.add(claim);
+            futures.add(executor.submit(() -> claim.compareAndSet(false, true)
+                ? collectInNewSession(sessionFactory, realmId, userId, groupIds)
+                : null));
+        }
+
+        Map<String, List<String>> groupNames = collect(user, partitions.get(0));
+        for (int i = 0; i < futures.size(); i++) {
+            // a cancelled future may still be running, so shares are claimed explicitly by either side
+            if (claims.get(i).compareAndSet(false, true)) {
+                futures.get(i).cancel(false);
+                groupNames.putAll(collect(user, partitions.get(i + 1)));
+                continue;
+            }
+            try {
+                groupNames.putAll(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while resolving organization groups", e);
+            } catch (ExecutionException e) {
+                LOG.warnf(e.getCause(), "Failed to resolve organization groups of user '%s' in realm '%s' in parallel, resolving them sequentially", userId, realm.getName());
+                groupNames.putAll(collect(user, partitions.get(i + 1)));
+            }
+        }
+        return groupNames;
+    }
+
+    private static Map<String, List<String>> collectInNewSession(KeycloakSessionFactory sessionFactory, String realmId, String userId, List<String> groupIds) {
+        return KeycloakModelUtils.runJobInTransactionWithResult(sessionFactory, session -> {
+            RealmModel realm = session.realms().getRealm(realmId);
+            session.getContext().setRealm(realm);
+            UserModel user = session.users().getUserById(realm, userId);
+            List<GroupModel> organizationGroups = groupIds.stream().map(id -> session.groups().getGroupById(realm, id)).toList();
+            // e.g. not committed yet; an empty share would be cached as if the user had no groups there
+            if (user == null || organizationGroups.contains(null)) {
+                throw new IllegalStateException("User or organization groups are not visible to a new session");
+            }
+            return collect(user, organizationGroups);
+        });
+    }
+
+    private static Stream<GroupModel> withSubGroups(GroupModel group) {
+        return Stream.concat(Stream.of(group), group.getSubGroupsStream().flatMap(OrgGroupMembershipIndex::withSubGroups));
+    }
+
+    private static GroupModel rootGroup(KeycloakSession session, RealmModel realm) {
+        return session.groups().getGroupByName(realm, null, ROOT_GROUP_NAME);
+    }
+
+    private static String realmVersion(RealmModel realm) {
+        return Objects.toString(realm.getAttribute(VERSION_ATTRIBUTE), "");
+    }
+
+    private static String version(String realmVersion, UserModel user) {
+        return realmVersion + "/" + Objects.toString(user.getFirstAttribute(VERSION_ATTRIBUTE), "");
+    }
+
+    private record Layout(String version, List<String> organizationAliases) {
+    }
+
+    /**
+     * @param coveredOrganizations the aliases of the organizations whose memberships have been resolved, or
+     *                             {@code null} if the entry covers all organizations
+     */
+    private record Entry(String version, Map<String, OrganizationGroups> groupsByOrganization, Set<String> coveredOrganizations) {
+
+        static Entry of(String version, Map<String, OrganizationGroups> groupsByOrganization, Map<String, List<String>> groupNamesByOrganization, Set<String> coveredOrganizations) {
+            Map<String, OrganizationGroups> groups = new LinkedHashMap<>(groupsByOrganization);
+            groupNamesByOrganization.forEach((alias, names) -> groups.put(alias, OrganizationGroups.of(alias, names)));
+            return new Entry(version, Collections.unmodifiableMap(groups), coveredOrganizations);
+        }
+
+        Map<String, List<String>> groupNamesByOrganization() {
+            Map<String, List<String>> groupNames = new LinkedHashMap<>();
+            groupsByOrganization.forEach((alias, groups) -> groupNames.put(alias, groups.names()));
+            return groupNames;
+        }
+
+        long weight() {
+            long weight = 2L * version.length();
+            for (OrganizationGroups groups : groupsByOrganization.values()) {
+                weight += groups.weight();
+            }
+            return weight;
+        }
+
+        boolean isComplete() {
+            return coveredOrganizations == null;
+        }
+
+        boolean covers(Collection<String> organizationAliases) {
+            return isComplete() || coveredOrganizations.containsAll(organizationAliases);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.jboss.logging.Logger;
+import org.keycloak.Config;
+import org.keycloak.common.Profile;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventListenerProvider;
+import org.keycloak.events.EventListenerProviderFactory;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.AbstractKeycloakTransaction;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.provider.EnvironmentDependentProviderFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps the {@link OrgGroupMembershipIndex} up to date. Model events, e.g. of group memberships granted via the Admin
+ * API, by identity provider mappers or by LDAP synchronization, bump the version stamps of the affected user or realm,
+ * which invalidates index entries on all nodes. Each stamp is bumped at most once per transaction, so admin events that
+ * follow the model events of the same change do not bump it again, but still cover stores that do not fire model
+ * events, e.g. LDAP group mappers.
+ * <p>
+ * If a {@code snapshot-file} is configured, the index is written to it on shutdown and restored from it on startup.
+ * Changes made while the node was down are caught up via the version stamps, which are checked on every read.
+ */
+public final class OrgGroupMembershipIndexEventListener implements EventListenerProviderFactory, EventListenerProvider, EnvironmentDependentProviderFactory {
+
+    private static final Logger LOG = Logger.getLogger(OrgGroupMembershipIndexEventListener.class);
+
+    private static final String PROVIDER_ID = "kommons-orgs-group-index";
+
+    // ids of the users and realms whose stamps have been bumped in the current transaction of a session
+    private static final String STAMPED_ATTRIBUTE = OrgGroupMembershipIndexEventListener.class.getName() + ".stamped";
+
+    private KeycloakSession session;
+    private Path snapshotFile;
+
+    public OrgGroupMembershipIndexEventListener() {
+    }
+
+    private OrgGroupMembershipIndexEventListener(KeycloakSession session) {
+        this.session = session;
+    }
+
+    @Override
+    public void onEvent(Event event) {
+
+    }
+
+    @Override
+    public void onEvent(AdminEvent adminEvent, boolean includeRepresentation) {
+        String resourceType = adminEvent.getResourceTypeAsString();
+        if (adminEvent.getRealmId() == null || adminEvent.getResourcePath() == null || resourceType == null) {
+            return;
+        }
+        RealmModel realm = session.realms().getRealm(adminEvent.getRealmId());
+        if (realm == null || !realm.isOrganizationsEnabled()) {
+            return;
+        }
+        String[] path = adminEvent.getResourcePath().split("/");
+
+        if (ResourceType.GROUP_MEMBERSHIP.name().equals(resourceType)) {
+            // users/{userId}/groups/{groupId}
+            GroupModel group = path.length > 3 ? session.groups().getGroupById(realm, path[3]) : null;
+            if (group != null && !OrgGroupMembershipIndex.isOrganizationGroup(group)) {
+                return;
+            }
+            UserModel user = path.length > 1 ? session.users().getUserById(realm, path[1]) : null;
+            if (user == null) {
+                realmChanged(session, realm);
+            } else {
+                userChanged(session, realm, user);
+            }
+        } else if (ResourceType.GROUP.name().equals(resourceType)) {
+            // groups/{groupId}[/children], a removed group can no longer be resolved
+            GroupModel group = path.length > 1 ? session.groups().getGroupById(realm, path[1]) : null;
+            if (group == null || OrgGroupMembershipIndex.isOrganizationGroup(group)) {
+                realmChanged(session, realm);
+            }
+        } else if (ResourceType.ORGANIZATION_MEMBERSHIP.name().equals(resourceType)) {
+            // organizations/{orgId}/members/{userId}; the index does not depend on organization membership, but
+            // entries of users who left an organization should not linger
+            if (path.length > 3) {
+                OrgGroupMembershipIndex.invalidateLocally(realm.getId(), path[3]);
+            }
+        }
+    }
+
+    @Override
+    public EventListenerProvider create(KeycloakSession session) {
+        return new OrgGroupMembershipIndexEventListener(session);
+    }
+
+    @Override
+    public void init(Config.Scope config) {
+        String snapshotFile = config.get("snapshot-file");
+        if (snapshotFile != null && !snapshotFile.isBlank()) {
+            this.snapshotFile = Path.of(snapshotFile);
+        }
+    }
+
+    @Override
+    public void postInit(KeycloakSessionFactory factory) {
+        factory.register(event -> {
+            if (event instanceof PostMigrationEvent && snapshotFile != null) {
+                restoreSnapshot(factory);
+            } else if (event instanceof UserModel.UserRemovedEvent removed) {
+                // a removed user cannot be stamped, but neither can it obtain tokens on any node
+                OrgGroupMembershipIndex.invalidateLocally(removed.getRealm().getId(), removed.getUser().getId());
+            } else if (event instanceof GroupModel.GroupEvent groupEvent && OrgGroupMembershipIndex.isOrganizationGroup(groupEvent.getGroup())) {
+                RealmModel realm = groupEvent.getRealm();
+                if (event instanceof GroupModel.GroupMemberJoinEvent joined) {
+                    userChanged(groupEvent.getKeycloakSession(), realm, joined.getUser());
+                } else if (event instanceof GroupModel.GroupMemberLeaveEvent left) {
+                    userChanged(groupEvent.getKeycloakSession(), realm, left.getUser());
+                } else {
+                    realmChanged(groupEvent.getKeycloakSession(), realm);
+                }
+            }
+        });
+    }
+
+    /**
+     * Bumps the user's stamp unless it or the realm's stamp has been bumped in the same transaction already, e.g. by the
+     * model event that precedes an admin event. The entry is invalidated locally in any case, as it may have been
+     * rebuilt from uncommitted changes in between.
+     */
+    private static void userChanged(KeycloakSession session, RealmModel realm, UserModel user) {
+        Set<String> stamped = stamped(session);
+        if (stamped.contains(realm.getId()) || !stamped.add(user.getId())) {
+            OrgGroupMembershipIndex.invalidateLocally(realm.getId(), user.getId());
+            return;
+        }
+        OrgGroupMembershipIndex.userChanged(realm, user);
+    }
+
+    private static void realmChanged(KeycloakSession session, RealmModel realm) {
+        if (!stamped(session).add(realm.getId())) {
+            OrgGroupMembershipIndex.invalidateLocally(realm.getId());
+            return;
+        }
+        OrgGroupMembershipIndex.realmChanged(realm);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> stamped(KeycloakSession session) {
+        if (session == null) {
+            return new HashSet<>();
+        }
+        Set<String> stamped = session.getAttribute(STAMPED_ATTRIBUTE, Set.class);
+        if (stamped == null) {
+            stamped = new HashSet<>();
+            session.setAttribute(STAMPED_ATTRIBUTE, stamped);
+            // a later transaction of the same session must bump the stamps again
+            session.getTransactionManager().enlistAfterCompletion(new AbstractKeycloakTransaction() {
+                @Override
+                protected void commitImpl() {
+                    session.removeAttribute(STAMPED_ATTRIBUTE);
+                }
+
+                @Override
+                protected void rollbackImpl() {
+                    session.removeAttribute(STAMPED_ATTRIBUTE);
+                }
+            });
+        }
+        return stamped;
+    }
+
+    @Override
+    public void close() {
+        // providers hold a session, the factory does not and is closed once on shutdown
+        if (session == null && snapshotFile != null) {
+            writeSnapshot();
+        }
+    }
+
+    private void restoreSnapshot(KeycloakSessionFactory factory) {
+        long start = System.currentTimeMillis();
+        try {
+            OrgGroupMembershipSnapshot.Content snapshot = OrgGroupMembershipSnapshot.read(snapshotFile);
+            if (snapshot == null) {
+                return;
+            }
+            int restored = KeycloakModelUtils.runJobInTransactionWithResult(factory,
+                session -> OrgGroupMembershipIndex.restoreSnapshot(session, snapshot));
+            LOG.infof("Restored %d entries of the organization group index from %s in %d ms", restored, snapshotFile, System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf(e, "Failed to restore the organization group index from %s", snapshotFile);
+        }
+    }
+
+    private void writeSnapshot() {
+        try {
+            int written = OrgGroupMembershipIndex.writeSnapshot(snapshotFile);
+            LOG.infof("Wrote %d entries of the organization group index to %s", written, snapshotFile);
+        } catch (IOException | RuntimeException e) {
+            LOG.warnf(e, "Failed to write the organization group index to %s", snapshotFile);
+        }
+    }
+
+    @Override
+    public String getId() {
+        return PROVIDER_ID;
+    }
+
+    @Override
+    public boolean isGlobal() {
+        return true;
+    }
+
+    @Override
+    public boolean isSupported(Config.Scope config) {
+        return Profile.isFeatureEnabled(Profile.Feature.ORGANIZATION);
+    }
+}
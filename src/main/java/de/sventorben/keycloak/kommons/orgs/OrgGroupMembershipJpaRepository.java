@@ -0,0 +1,96 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import jakarta.persistence.EntityManager;
+import org.jboss.logging.Logger;
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.StorageId;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Resolves the organization groups of a user with a single query against Keycloak's JPA store: the user's group
+ * memberships joined with up to {@value #ANCESTORS} levels of their ancestor groups. A membership counts for the
+ * organization group's child on its path to the {@value OrgGroupMembershipIndex#ROOT_GROUP_NAME} root group, just
+ * like {@link UserModel#isMemberOf(GroupModel)} does.
+ * <p>
+ * Only applies to local users of a realm stored via JPA. Memberships of federated users may live in the external
+ * store, and memberships nested deeper than the joined ancestors cannot be attributed; both are left to the model API.
+ */
+final class OrgGroupMembershipJpaRepository {
+
+    private static final Logger LOG = Logger.getLogger(OrgGroupMembershipJpaRepository.class);
+
+    private static final int ANCESTORS = 4;
+
+    private static final String QUERY = """
+        select g.name, g.parentId, p1.name, p1.parentId, p2.name, p2.parentId, p3.name, p3.parentId, p4.name, p4.parentId
+        from UserGroupMembershipEntity m
+        join GroupEntity g on g.id = m.groupId
+        left join GroupEntity p1 on p1.id = g.parentId
+        left join GroupEntity p2 on p2.id = p1.parentId
+        left join GroupEntity p3 on p3.id = p2.parentId
+        left join GroupEntity p4 on p4.id = p3.parentId
+        where m.user.id = :userId
+        """;
+
+    private OrgGroupMembershipJpaRepository() {
+    }
+
+    /**
+     * Returns the names of the user's groups per organization alias, both in alphabetical order, or {@code null} if
+     * the memberships have to be resolved via the model API.
+     */
+    static Map<String, List<String>> findGroupNamesByOrganization(KeycloakSession session, RealmModel realm, UserModel user, GroupModel root) {
+        if (user.getFederationLink() != null || !StorageId.isLocalStorage(user.getId())) {
+            return null;
+        }
+        JpaConnectionProvider jpa = session.getProvider(JpaConnectionProvider.class);
+        if (jpa == null) {
+            return null;
+        }
+
+        // no fallback on failure: a failed query marks the transaction for rollback, so the model API would fail, too
+        EntityManager entityManager = jpa.getEntityManager();
+        List<Object[]> rows = entityManager.createQuery(QUERY, Object[].class)
+            .setParameter("userId", user.getId())
+            .getResultList();
+
+        Map<String, SortedSet<String>> groupNames = new TreeMap<>();
+        for (Object[] row : rows) {
+            // columns alternate between name and parent id, starting with the group the user is a member of
+            int level = 0;
+            while (level <= ANCESTORS && row[2 * level] != null && !root.getId().equals(row[2 * level + 1])) {
+                level++;
+            }
+            if (level > ANCESTORS) {
+                String parentId = (String) row[2 * ANCESTORS + 1];
+                if (parentId == null || parentId.isBlank()) {
+                    // a deeply nested group of another top-level group
+                    continue;
+                }
+                LOG.debugf("Group '%s' of user '%s' is nested too deep below organization groups, falling back to the model API", row[0], user.getId());
+                return null;
+            }
+            if (row[2 * level] == null || level == 0) {
+                // not below the root group, or a member of an organization group itself
+                continue;
+            }
+            String organizationAlias = (String) row[2 * level];
+            String groupName = (String) row[2 * (level - 1)];
+            groupNames.computeIfAbsent(organizationAlias, it -> new TreeSet<>()).add(groupName);
+        }
+
+        Map<String, List<String>> result = new TreeMap<>();
+        groupNames.forEach((organizationAlias, names) -> result.put(organizationAlias, List.copyOf(names)));
+        LOG.debugf("Resolved organization groups of user '%s' in realm '%s' with a single query", user.getId(), realm.getName());
+        return result;
+    }
+}
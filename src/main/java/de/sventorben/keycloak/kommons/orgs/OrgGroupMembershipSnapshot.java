@@ -0,0 +1,184 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.jboss.logging.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary snapshot of the {@link OrgGroupMembershipIndex} on local disk.
+ * <p>
+ * Layout, all numbers big-endian and all strings as length-prefixed UTF-8:
+ * <pre>
+ * int magic, int format version, long creation time,
+ * int realm count, per realm: string realm id, int entry count,
+ *   per entry: string user id, string version stamp, long write time,
+ *     int organization count, per organization: string alias, int group count, strings group names
+ * long CRC32 of everything before
+ * </pre>
+ * Snapshots are written to a temporary file that replaces the previous snapshot atomically, and read via a memory
+ * mapping. A snapshot with a different magic or format version, or a checksum mismatch, is ignored as a whole.
+ */
+final class OrgGroupMembershipSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(OrgGroupMembershipSnapshot.class);
+
+    private static final int MAGIC = 0x4B4F4D47; // "KOMG"
+    static final int FORMAT_VERSION = 1;
+
+    record Entry(String userId, String version, long writtenAt, Map<String, List<String>> groupNamesByOrganization) {
+    }
+
+    record Content(long createdAt, Map<String, List<Entry>> entriesByRealm) {
+    }
+
+    private OrgGroupMembershipSnapshot() {
+    }
+
+    static void write(Path file, long createdAt, Map<String, List<Entry>> entriesByRealm) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            restrictToOwner(temporaryFile);
+            CRC32 checksum = new CRC32();
+            try (OutputStream fileOut = Files.newOutputStream(temporaryFile, StandardOpenOption.TRUNCATE_EXISTING);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                DataOutputStream checked = new DataOutputStream(new CheckedOutputStream(out, checksum));
+                checked.writeInt(MAGIC);
+                checked.writeInt(FORMAT_VERSION);
+                checked.writeLong(createdAt);
+                checked.writeInt(entriesByRealm.size());
+                for (Map.Entry<String, List<Entry>> realm : entriesByRealm.entrySet()) {
+                    writeString(checked, realm.getKey());
+                    checked.writeInt(realm.getValue().size());
+                    for (Entry entry : realm.getValue()) {
+                        writeString(checked, entry.userId());
+                        writeString(checked, entry.version());
+                        checked.writeLong(entry.writtenAt());
+                        checked.writeInt(entry.groupNamesByOrganization().size());
+                        for (Map.Entry<String, List<String>> organization : entry.groupNamesByOrganization().entrySet()) {
+                            writeString(checked, organization.getKey());
+                            checked.writeInt(organization.getValue().size());
+                            for (String groupName : organization.getValue()) {
+                                writeString(checked, groupName);
+                            }
+                        }
+                    }
+                }
+                checked.flush();
+                out.writeLong(checksum.getValue());
+            }
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    /**
+     * Returns the content of the snapshot, or {@code null} if there is no valid snapshot.
+     */
+    static Content read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Long.BYTES || size > Integer.MAX_VALUE) {
+                LOG.warnf("Ignoring snapshot %s of unexpected size %d", file, size);
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.slice(0, (int) size - Long.BYTES));
+            if (checksum.getValue() != buffer.getLong((int) size - Long.BYTES)) {
+                LOG.warnf("Ignoring snapshot %s with invalid checksum", file);
+                return null;
+            }
+            ByteBuffer content = buffer.slice(0, (int) size - Long.BYTES);
+            if (content.getInt() != MAGIC) {
+                LOG.warnf("Ignoring %s, it is not a snapshot of the organization group index", file);
+                return null;
+            }
+            int formatVersion = content.getInt();
+            if (formatVersion != FORMAT_VERSION) {
+                LOG.infof("Ignoring snapshot %s of format version %d, expected %d", file, formatVersion, FORMAT_VERSION);
+                return null;
+            }
+            long createdAt = content.getLong();
+            int realms = content.getInt();
+            Map<String, List<Entry>> entriesByRealm = new HashMap<>();
+            for (int r = 0; r < realms; r++) {
+                String realmId = readString(content);
+                int entryCount = content.getInt();
+                List<Entry> entries = new ArrayList<>(entryCount);
+                for (int e = 0; e < entryCount; e++) {
+                    String userId = readString(content);
+                    String version = readString(content);
+                    long writtenAt = content.getLong();
+                    int organizations = content.getInt();
+                    Map<String, List<String>> groupNames = new LinkedHashMap<>();
+                    for (int o = 0; o < organizations; o++) {
+                        String alias = readString(content);
+                        String[] names = new String[content.getInt()];
+                        for (int g = 0; g < names.length; g++) {
+                            names[g] = readString(content);
+                        }
+                        groupNames.put(alias, List.of(names));
+                    }
+                    entries.add(new Entry(userId, version, writtenAt, Collections.unmodifiableMap(groupNames)));
+                }
+                entriesByRealm.put(realmId, entries);
+            }
+            return new Content(createdAt, entriesByRealm);
+        } catch (BufferUnderflowException | IllegalArgumentException | NegativeArraySizeException e) {
+            LOG.warnf(e, "Ignoring corrupt snapshot %s", file);
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void restrictToOwner(Path file) throws IOException {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // not a POSIX file system
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import java.util.List;
+
+/**
+ * The names of a user's groups in one organization, along with their serialized JSON array. The array is immutable and
+ * shared by all tokens, so other mappers cannot modify the claim of other tokens, and issuing a token allocates no JSON
+ * nodes per group.
+ */
+final class OrganizationGroups {
+
+    static final OrganizationGroups EMPTY = new OrganizationGroups("", List.of());
+
+    // rough overhead of a String and its list slot, on top of the characters
+    private static final long ELEMENT_WEIGHT = 48;
+
+    private final String organizationAlias;
+    private final List<String> names;
+    private final RawValue json;
+    private volatile RawValue prefixedJson;
+
+    private OrganizationGroups(String organizationAlias, List<String> names) {
+        this.organizationAlias = organizationAlias;
+        this.names = names;
+        this.json = new RawValue(toJson(names, null));
+    }
+
+    static OrganizationGroups of(String organizationAlias, List<String> names) {
+        return new OrganizationGroups(organizationAlias, List.copyOf(names));
+    }
+
+    List<String> names() {
+        return names;
+    }
+
+    boolean isEmpty() {
+        return names.isEmpty();
+    }
+
+    /**
+     * Returns the JSON array of the group names, optionally prefixed with the organization alias.
+     */
+    RawValue json(boolean prefixed) {
+        if (!prefixed) {
+            return json;
+        }
+        RawValue prefixedJson = this.prefixedJson;
+        if (prefixedJson == null) {
+            // computed at most a few times concurrently, all results are equal
+            prefixedJson = new RawValue(toJson(names, organizationAlias + "_"));
+            this.prefixedJson = prefixedJson;
+        }
+        return prefixedJson;
+    }
+
+    /**
+     * Returns the estimated number of bytes retained, including the prefixed JSON array, which may be computed later.
+     */
+    long weight() {
+        long weight = ELEMENT_WEIGHT + 2L * organizationAlias.length() + 2 * (ELEMENT_WEIGHT + 2L * json.rawValue().toString().length());
+        for (String name : names) {
+            weight += ELEMENT_WEIGHT + 2L * name.length() + 2L * (organizationAlias.length() + 1);
+        }
+        return weight;
+    }
+
+    /**
+     * Returns a single JSON array of the group names of all given organizations, in their order.
+     */
+    static RawValue concat(List<OrganizationGroups> organizations, boolean prefixed) {
+        List<OrganizationGroups> nonEmpty = organizations.stream().filter(groups -> !groups.isEmpty()).toList();
+        if (nonEmpty.size() == 1) {
+            return nonEmpty.get(0).json(prefixed);
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (OrganizationGroups groups : nonEmpty) {
+            String array = groups.json(prefixed).rawValue().toString();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(array, 1, array.length() - 1);
+        }
+        return new RawValue(json.append(']').toString());
+    }
+
+    private static String toJson(List<String> names, String prefix) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder json = new StringBuilder("[");
+        for (String name : names) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"');
+            if (prefix != null) {
+                encoder.quoteAsString(prefix, json);
+            }
+            encoder.quoteAsString(name, json);
+            json.append('"');
+        }
+        return json.append(']').toString();
+    }
+}
@@ -0,0 +1,26 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The organizations whose groups are added to a token: all requested organizations that have an organization group,
+ * in alphabetical order of their alias and limited to a maximum number. {@code overflow} tells whether organizations
+ * have been omitted due to that limit.
+ */
+record OrganizationSelection(List<String> aliases, boolean overflow) {
+
+    static OrganizationSelection of(List<String> organizationAliases, Collection<String> requestedAliases, int maxOrganizations) {
+        Set<String> requested = new HashSet<>(requestedAliases);
+        List<String> aliases = organizationAliases.stream()
+            .filter(requested::contains)
+            .sorted()
+            .toList();
+        if (maxOrganizations > 0 && aliases.size() > maxOrganizations) {
+            return new OrganizationSelection(aliases.subList(0, maxOrganizations), true);
+        }
+        return new OrganizationSelection(aliases, false);
+    }
+}
@@ -0,0 +1,16 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import io.micrometer.core.instrument.Counter;
+
+public final class KommonsCounter {
+
+    private final MeterFamily<Counter> counters;
+
+    KommonsCounter(MeterFamily<Counter> counters) {
+        this.counters = counters;
+    }
+
+    public void increment(String realm, String key) {
+        counters.get(realm, key).increment();
+    }
+}
@@ -0,0 +1,63 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of all Kommons providers.
+ * <p>
+ * Meters are registered with Micrometer's global registry, which Keycloak's Quarkus runtime feeds into the
+ * registry backing the {@code /metrics} endpoint (requires {@code metrics-enabled=true}). Every meter is tagged
+ * with the realm name and one provider specific tag.
+ */
+public final class KommonsMetrics {
+
+    private static final String TAG_REALM = "realm";
+    private static final String TAG_PROVIDER = "provider";
+    private static final String TAG_MAPPER = "mapper";
+    private static final String TAG_EVENT = "event";
+    private static final String TAG_RESULT = "result";
+
+    private static final MeterRegistry REGISTRY = Metrics.globalRegistry;
+
+    private KommonsMetrics() {
+    }
+
+    /**
+     * Time spent in a protocol mapper's {@code setClaim}, tagged by realm, provider id and mapper name.
+     */
+    public static KommonsTimer mapperTimer(String providerId) {
+        return new KommonsTimer(new MeterFamily<>((realm, mapper) -> Timer.builder("kommons.mapper.set.claim")
+            .description("Time spent by Kommons protocol mappers while adding claims to a token")
+            .tag(TAG_REALM, realm)
+            .tag(TAG_PROVIDER, providerId)
+            .tag(TAG_MAPPER, mapper)
+            .register(REGISTRY)));
+    }
+
+    /**
+     * Time spent in an event listener's {@code onEvent}, tagged by realm, provider id and event type.
+     */
+    public static KommonsTimer eventListenerTimer(String providerId) {
+        return new KommonsTimer(new MeterFamily<>((realm, event) -> Timer.builder("kommons.event.listener")
+            .description("Time spent by Kommons event listeners while processing an event")
+            .tag(TAG_REALM, realm)
+            .tag(TAG_PROVIDER, providerId)
+            .tag(TAG_EVENT, event)
+            .register(REGISTRY)));
+    }
+
+    /**
+     * Number of condition evaluations, tagged by realm, provider id and result.
+     */
+    public static KommonsCounter conditionCounter(String providerId) {
+        return new KommonsCounter(new MeterFamily<>((realm, result) -> Counter.builder("kommons.condition.evaluations")
+            .description("Number of Kommons authenticator condition evaluations")
+            .tag(TAG_REALM, realm)
+            .tag(TAG_PROVIDER, providerId)
+            .tag(TAG_RESULT, result)
+            .register(REGISTRY)));
+    }
+}
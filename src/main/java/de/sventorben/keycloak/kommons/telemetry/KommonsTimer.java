@@ -0,0 +1,22 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+public final class KommonsTimer {
+
+    private final MeterFamily<Timer> timers;
+
+    KommonsTimer(MeterFamily<Timer> timers) {
+        this.timers = timers;
+    }
+
+    public long start() {
+        return System.nanoTime();
+    }
+
+    public void stop(String realm, String key, long startNanos) {
+        timers.get(realm, key).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,42 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import io.opentelemetry.api.common.AttributeKey;
+import io.opentelemetry.api.trace.Span;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+
+/**
+ * Span attributes used by Kommons providers.
+ * <p>
+ * Spans themselves are started through Keycloak's {@link org.keycloak.tracing.TracingProvider}, so they become
+ * children of the span of the surrounding request and are exported together with Keycloak's own spans.
+ */
+public final class KommonsTracing {
+
+    public static final AttributeKey<String> MAPPER_NAME = AttributeKey.stringKey("kommons.mapper.name");
+    public static final AttributeKey<String> CLAIM_NAME = AttributeKey.stringKey("kommons.claim.name");
+    public static final AttributeKey<Long> CLAIM_COUNT = AttributeKey.longKey("kommons.claim.count");
+    public static final AttributeKey<Long> CLAIM_BYTES = AttributeKey.longKey("kommons.claim.bytes");
+    public static final AttributeKey<Long> ORGANIZATION_COUNT = AttributeKey.longKey("kommons.organization.count");
+    public static final AttributeKey<Long> GROUP_COUNT = AttributeKey.longKey("kommons.group.count");
+    public static final AttributeKey<Long> ATTRIBUTE_COUNT = AttributeKey.longKey("kommons.attribute.count");
+    public static final AttributeKey<String> EVENT_TYPE = AttributeKey.stringKey("kommons.event.type");
+
+    private KommonsTracing() {
+    }
+
+    /**
+     * Records the serialized size of a claim. The claim is only serialized if the span is actually recorded.
+     */
+    public static void setClaimBytes(Span span, Object claim) {
+        if (!span.isRecording() || claim == null) {
+            return;
+        }
+        try {
+            span.setAttribute(CLAIM_BYTES, JsonSerialization.writeValueAsBytes(claim).length);
+        } catch (IOException ignored) {
+            // size is informational only
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiFunction;
+
+/**
+ * Lazily registers one meter per realm and key and hands out the registered instance afterwards.
+ * Lookups for already registered meters are plain map reads and do not allocate.
+ */
+final class MeterFamily<M> {
+
+    private static final String UNKNOWN = "unknown";
+
+    private final ConcurrentMap<String, ConcurrentMap<String, M>> meters = new ConcurrentHashMap<>();
+    private final BiFunction<String, String, M> registration;
+
+    MeterFamily(BiFunction<String, String, M> registration) {
+        this.registration = registration;
+    }
+
+    M get(String realm, String key) {
+        String realmTag = realm == null ? UNKNOWN : realm;
+        String keyTag = key == null ? UNKNOWN : key;
+        ConcurrentMap<String, M> metersOfRealm = meters.get(realmTag);
+        if (metersOfRealm == null) {
+            metersOfRealm = meters.computeIfAbsent(realmTag, it -> new ConcurrentHashMap<>());
+        }
+        M meter = metersOfRealm.get(keyTag);
+        if (meter == null) {
+            meter = metersOfRealm.computeIfAbsent(keyTag, it -> registration.apply(realmTag, it));
+        }
+        return meter;
+    }
+}
@@ -0,0 +1,85 @@
+package de.sventorben.keycloak.kommons.auth;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.models.AuthenticatorConfigModel;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.UserModel;
+
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UnusualLoginTimeConditionalAuthenticatorTest {
+
+    private final UnusualLoginTimeConditionalAuthenticator authenticator = new UnusualLoginTimeConditionalAuthenticator();
+    private final Map<String, String> config = new HashMap<>();
+
+    private AuthenticationFlowContext context;
+
+    @BeforeEach
+    void setUp() {
+        // the most recent login was just now, but the user usually logs in six hours later
+        LocalTime now = LocalTime.now(ZoneOffset.UTC).truncatedTo(ChronoUnit.SECONDS);
+        UnusualLoginTimeStatistics statistics = UnusualLoginTimeStatistics.EMPTY;
+        for (int i = 0; i < 20; i++) {
+            statistics = statistics.add(now.plusHours(6));
+        }
+        UserModel user = mock(UserModel.class);
+        when(user.getAttributeStream("kommons.usualLoginTimes")).thenAnswer(invocation -> Stream.of(now.toString()));
+        when(user.getFirstAttribute("kommons.loginTimeStatistics")).thenReturn(statistics.format());
+
+        RealmModel realm = mock(RealmModel.class);
+        when(realm.getName()).thenReturn("realm");
+        AuthenticatorConfigModel authenticatorConfig = new AuthenticatorConfigModel();
+        authenticatorConfig.setConfig(config);
+        config.put("kommons.skew.minutes", "15");
+
+        context = mock(AuthenticationFlowContext.class);
+        when(context.getAuthenticatorConfig()).thenReturn(authenticatorConfig);
+        when(context.getUser()).thenReturn(user);
+        when(context.getRealm()).thenReturn(realm);
+    }
+
+    @Test
+    @DisplayName("Given the fixed window, when a login is close to the recent logins, then it is usual")
+    void usesRecentLoginTimesByDefault() {
+        assertThat(authenticator.matchCondition(context)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given the adaptive window, when a login is far from the mean login time, then it is unusual")
+    void usesStatisticsIfAdaptive() {
+        config.put("kommons.skew.adaptive", "true");
+
+        assertThat(authenticator.matchCondition(context)).isTrue();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"NaN", "Infinity", "-Infinity", "-1", "0", "two", " "})
+    @DisplayName("Given an invalid number of standard deviations, when the config is read, then the default is used")
+    void ignoresInvalidDeviations(String deviations) {
+        config.put("kommons.skew.deviations", deviations);
+
+        assertThat(new UnusualLoginTimeConditionalAuthenticatorConfig(context.getAuthenticatorConfig()).getDeviations()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Given a valid number of standard deviations, when the config is read, then it is used")
+    void readsDeviations() {
+        config.put("kommons.skew.deviations", "1.5");
+
+        assertThat(new UnusualLoginTimeConditionalAuthenticatorConfig(context.getAuthenticatorConfig()).getDeviations()).isEqualTo(1.5);
+    }
+}
@@ -0,0 +1,103 @@
+package de.sventorben.keycloak.kommons.auth;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.Event;
+import org.keycloak.events.EventType;
+import org.keycloak.models.ClientModel;
+import org.keycloak.models.ClientProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.tracing.NoopTracingProvider;
+import org.keycloak.tracing.TracingProvider;
+
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UnusualLoginTimeEventListenerProviderTest {
+
+    private static final String CLIENT_ID = "service-client";
+
+    private RealmModel realm;
+    private ClientProvider clients;
+    private UserProvider users;
+    private UserModel serviceAccount;
+    private UnusualLoginTimeEventListenerProvider listener;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(UUID.randomUUID().toString());
+        when(realm.getName()).thenReturn("realm");
+
+        serviceAccount = mock(UserModel.class);
+        when(serviceAccount.getId()).thenReturn("service-account");
+        when(serviceAccount.getAttributeStream(anyString())).thenAnswer(invocation -> Stream.empty());
+
+        ClientModel client = mock(ClientModel.class);
+        RealmProvider realms = mock(RealmProvider.class);
+        when(realms.getRealm(realm.getId())).thenReturn(realm);
+        clients = mock(ClientProvider.class);
+        when(clients.getClientByClientId(realm, CLIENT_ID)).thenReturn(client);
+        users = mock(UserProvider.class);
+        when(users.getServiceAccount(client)).thenReturn(serviceAccount);
+        when(users.getUserById(realm, "service-account")).thenReturn(serviceAccount);
+
+        KeycloakSession session = mock(KeycloakSession.class);
+        when(session.realms()).thenReturn(realms);
+        when(session.clients()).thenReturn(clients);
+        when(session.users()).thenReturn(users);
+        when(session.getProvider(TracingProvider.class)).thenReturn(new NoopTracingProvider());
+        listener = new UnusualLoginTimeEventListenerProvider(session);
+    }
+
+    @Test
+    @DisplayName("Given a client login event with a user id, when it is handled, then no client is looked up")
+    void usesUserIdOfEvent() {
+        listener.onEvent(clientLogin("service-account"));
+
+        verify(clients, never()).getClientByClientId(any(), any());
+        verify(clients, never()).getClientById(any(), any());
+        verifyLoginTimeRecorded(1);
+    }
+
+    @Test
+    @DisplayName("Given client login events without a user id, when they are handled, then the client is looked up by client id once")
+    void looksUpServiceAccountByClientId() {
+        listener.onEvent(clientLogin(null));
+        listener.onEvent(clientLogin(null));
+
+        verify(clients, times(1)).getClientByClientId(realm, CLIENT_ID);
+        verify(clients, never()).getClientById(any(), any());
+        verify(users, times(1)).getServiceAccount(any());
+        verifyLoginTimeRecorded(2);
+    }
+
+    private void verifyLoginTimeRecorded(int times) {
+        verify(serviceAccount, times(times)).setAttribute(eq("kommons.usualLoginTimes"), anyList());
+    }
+
+    private Event clientLogin(String userId) {
+        Event event = new Event();
+        event.setType(EventType.CLIENT_LOGIN);
+        event.setRealmId(realm.getId());
+        event.setClientId(CLIENT_ID);
+        event.setUserId(userId);
+        event.setTime(System.currentTimeMillis());
+        return event;
+    }
+}
@@ -0,0 +1,64 @@
+package de.sventorben.keycloak.kommons.auth;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class UnusualLoginTimeStatisticsTest {
+
+    @Test
+    @DisplayName("Given logins around midnight, when the mean is computed, then it wraps around midnight")
+    void computesCircularMean() {
+        UnusualLoginTimeStatistics statistics = UnusualLoginTimeStatistics.EMPTY
+            .add(LocalTime.of(23, 30))
+            .add(LocalTime.of(0, 30));
+
+        assertThat(statistics.count()).isEqualTo(2);
+        assertThat(statistics.meanMinuteOfDay() % (24 * 60)).isCloseTo(0, within(0.01));
+        assertThat(statistics.deviationMinutes()).isCloseTo(30, within(0.5));
+    }
+
+    @Test
+    @DisplayName("Given a tight schedule, when the window is derived, then it is narrower than for an erratic schedule")
+    void derivesWindowFromDeviation() {
+        UnusualLoginTimeStatistics tight = UnusualLoginTimeStatistics.EMPTY;
+        UnusualLoginTimeStatistics erratic = UnusualLoginTimeStatistics.EMPTY;
+        for (int i = 0; i < 20; i++) {
+            tight = tight.add(LocalTime.of(9, i % 2 == 0 ? 0 : 10));
+            erratic = erratic.add(LocalTime.of(i % 2 == 0 ? 7 : 11, 5));
+        }
+
+        assertThat(tight.isUsual(LocalTime.of(9, 5), 2, 5)).isTrue();
+        assertThat(tight.isUsual(LocalTime.of(9, 40), 2, 5)).isFalse();
+        assertThat(erratic.isUsual(LocalTime.of(9, 40), 2, 5)).isTrue();
+        assertThat(erratic.isUsual(LocalTime.of(18, 0), 2, 5)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given a single login, when the window is derived, then the clock skew applies")
+    void appliesSkewAsMinimum() {
+        UnusualLoginTimeStatistics statistics = UnusualLoginTimeStatistics.EMPTY.add(LocalTime.of(23, 55));
+
+        assertThat(statistics.isUsual(LocalTime.of(0, 5), 2, 15)).isTrue();
+        assertThat(statistics.isUsual(LocalTime.of(0, 15), 2, 15)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given no logins, when a login time is checked, then every time is usual")
+    void treatsEmptyStatisticsAsUsual() {
+        assertThat(UnusualLoginTimeStatistics.EMPTY.isUsual(LocalTime.of(3, 0), 2, 15)).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given formatted statistics, when they are parsed, then they are equal, and malformed values are empty")
+    void parsesFormattedStatistics() {
+        UnusualLoginTimeStatistics statistics = UnusualLoginTimeStatistics.EMPTY.add(LocalTime.of(8, 15)).add(LocalTime.of(9, 45));
+
+        assertThat(UnusualLoginTimeStatistics.parse(statistics.format())).isEqualTo(statistics);
+        assertThat(UnusualLoginTimeStatistics.parse("not;a;number")).isEqualTo(UnusualLoginTimeStatistics.EMPTY);
+    }
+}
@@ -0,0 +1,213 @@
+package de.sventorben.keycloak.kommons.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.common.util.Time;
+import org.keycloak.events.admin.ResourceType;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class KommonsCacheTest {
+
+    @AfterEach
+    void resetTime() {
+        Time.setOffset(0);
+    }
+
+    @Test
+    @DisplayName("Given a cached value, when it is requested again, then the loader is not called and a hit is counted")
+    void cachesLoadedValues() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName()).build();
+
+        assertThat(cache.get("realm", "key", key -> "value")).isEqualTo("value");
+        assertThat(cache.get("realm", "key", key -> "other")).isEqualTo("value");
+
+        KommonsCacheStatistics statistics = cache.statistics("realm");
+        assertThat(statistics.hits()).isEqualTo(1);
+        assertThat(statistics.misses()).isEqualTo(1);
+        assertThat(statistics.hitRate()).isEqualTo(0.5);
+        assertThat(statistics.size()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Given traffic in another realm, when statistics of a realm are requested, then they only count that realm")
+    void countsPerRealm() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .maximumWeight(100, (key, value) -> value.length())
+            .build();
+        cache.get("other-realm", "key", key -> "other");
+        cache.get("other-realm", "key", key -> "other");
+        cache.get("realm", "key", key -> "value");
+
+        KommonsCacheStatistics statistics = cache.statistics("realm");
+        assertThat(statistics.size()).isEqualTo(1);
+        assertThat(statistics.hits()).isZero();
+        assertThat(statistics.misses()).isEqualTo(1);
+        assertThat(statistics.weight()).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Given a full realm, when another entry is added, then one entry is evicted")
+    void evictsWhenFull() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName()).maximumSize(2).build();
+
+        cache.put("realm", "a", "a");
+        cache.put("realm", "b", "b");
+        cache.put("realm", "c", "c");
+        cache.put("other-realm", "a", "a");
+
+        KommonsCacheStatistics statistics = cache.statistics("realm");
+        assertThat(statistics.size()).isEqualTo(2);
+        assertThat(cache.statistics("other-realm").size()).isEqualTo(1);
+        assertThat(statistics.evictions()).isEqualTo(1);
+        assertThat(cache.getIfPresent("realm", "c")).isEqualTo("c");
+    }
+
+    @Test
+    @DisplayName("Given a cache bounded by weight, when its budget is exceeded, then entries are evicted across realms until it fits")
+    void evictsByWeight() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .maximumWeight(10, (key, value) -> value.length())
+            .build();
+
+        cache.put("realm", "a", "1234");
+        cache.put("other-realm", "b", "1234");
+        assertThat(cache.statistics("realm").weight()).isEqualTo(4);
+        assertThat(cache.statistics("other-realm").weight()).isEqualTo(4);
+
+        cache.put("realm", "c", "123456");
+
+        KommonsCacheStatistics statistics = cache.statistics("realm");
+        KommonsCacheStatistics otherStatistics = cache.statistics("other-realm");
+        assertThat(statistics.weight() + otherStatistics.weight()).isLessThanOrEqualTo(10);
+        assertThat(statistics.evictions() + otherStatistics.evictions()).isEqualTo(1);
+
+        cache.invalidateAll();
+        assertThat(cache.statistics("realm").weight()).isZero();
+    }
+
+    @Test
+    @DisplayName("Given concurrent puts, evictions and invalidations, when they settle, then the weight matches the live entries")
+    void keepsWeightConsistentUnderConcurrency() throws InterruptedException {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .maximumWeight(200, (key, value) -> value.length())
+            .build();
+        List<String> realms = List.of("realm", "other-realm");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int thread = 0; thread < 8; thread++) {
+            executor.execute(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < 20_000; i++) {
+                    String realm = realms.get(random.nextInt(realms.size()));
+                    String key = String.valueOf(random.nextInt(50));
+                    switch (random.nextInt(10)) {
+                        case 0 -> cache.invalidateRealm(realm);
+                        case 1 -> cache.invalidate(realm, key);
+                        case 2 -> cache.restore(realm, key, "x".repeat(random.nextInt(1, 10)), Time.currentTimeMillis());
+                        default -> cache.put(realm, key, "x".repeat(random.nextInt(1, 10)));
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        Map<String, Long> liveWeights = new HashMap<>();
+        cache.forEachEntry((realmId, key, value, writtenAt) -> liveWeights.merge(realmId, (long) value.length(), Long::sum));
+        for (String realm : realms) {
+            assertThat(cache.statistics(realm).weight()).isEqualTo(liveWeights.getOrDefault(realm, 0L));
+        }
+        assertThat(liveWeights.values().stream().mapToLong(Long::longValue).sum()).isLessThanOrEqualTo(200);
+
+        cache.invalidateAll();
+        for (String realm : realms) {
+            assertThat(cache.statistics(realm).weight()).isZero();
+        }
+    }
+
+    @Test
+    @DisplayName("Given an expired entry, when it is requested, then it is reloaded")
+    void expiresEntries() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+        cache.put("realm", "key", "old");
+
+        Time.setOffset(61);
+
+        assertThat(cache.get("realm", "key", key -> "new")).isEqualTo("new");
+        assertThat(cache.statistics("realm").evictions()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Given entries restored with their original write time, when they are requested, then only those not expired yet are served")
+    void restoresEntriesWithTheirAge() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .expireAfterWrite(Duration.ofMinutes(1))
+            .build();
+        cache.put("realm", "present", "present");
+
+        assertThat(cache.restore("realm", "fresh", "fresh", Time.currentTimeMillis() - 30_000)).isTrue();
+        assertThat(cache.restore("realm", "stale", "stale", Time.currentTimeMillis() - 61_000)).isFalse();
+        assertThat(cache.restore("realm", "present", "restored", Time.currentTimeMillis())).isFalse();
+
+        Time.setOffset(31);
+        assertThat(cache.getIfPresent("realm", "fresh")).isNull();
+        assertThat(cache.getIfPresent("realm", "present")).isEqualTo("present");
+    }
+
+    @Test
+    @DisplayName("Given an admin event of a relevant resource type, when caches are invalidated, then only entries of that realm are dropped")
+    void invalidatesByResourceType() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName())
+            .invalidatedBy(ResourceType.CLIENT)
+            .build();
+        cache.put("realm", "key", "value");
+        cache.put("other-realm", "key", "value");
+
+        KommonsCaches.invalidateRealm("realm", ResourceType.USER.name());
+        assertThat(cache.getIfPresent("realm", "key")).isEqualTo("value");
+
+        KommonsCaches.invalidateRealm("realm", ResourceType.CLIENT.name());
+        assertThat(cache.getIfPresent("realm", "key")).isNull();
+        assertThat(cache.getIfPresent("other-realm", "key")).isEqualTo("value");
+    }
+
+    @Test
+    @DisplayName("Given a removed realm, when its caches are dropped, then its statistics are dropped as well")
+    void dropsStatisticsOfRemovedRealm() {
+        KommonsCache<String, String> cache = KommonsCache.<String, String>builder(uniqueName()).build();
+        cache.get("realm", "key", key -> "value");
+        cache.get("other-realm", "key", key -> "value");
+
+        KommonsCaches.removeRealm("realm");
+
+        assertThat(cache.statistics("realm").misses()).isZero();
+        assertThat(cache.statistics("realm").size()).isZero();
+        assertThat(cache.statistics("other-realm").misses()).isEqualTo(1);
+    }
+
+    private static String uniqueName() {
+        return "test-" + UUID.randomUUID();
+    }
+}
@@ -0,0 +1,41 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Collects latencies of a single worker thread without boxing. Recorders of all workers are merged afterwards.
+ */
+final class LatencyRecorder {
+
+    private long[] latencies = new long[1024];
+    private int size;
+    private long errors;
+
+    void record(long nanos) {
+        if (size == latencies.length) {
+            latencies = Arrays.copyOf(latencies, size * 2);
+        }
+        latencies[size++] = nanos;
+    }
+
+    void error() {
+        errors++;
+    }
+
+    static LatencyStats merge(Iterable<LatencyRecorder> recorders, long elapsedNanos) {
+        int total = 0;
+        long errors = 0;
+        for (LatencyRecorder recorder : recorders) {
+            total += recorder.size;
+            errors += recorder.errors;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (LatencyRecorder recorder : recorders) {
+            System.arraycopy(recorder.latencies, 0, all, offset, recorder.size);
+            offset += recorder.size;
+        }
+        Arrays.sort(all);
+        return new LatencyStats(all, errors, elapsedNanos);
+    }
+}
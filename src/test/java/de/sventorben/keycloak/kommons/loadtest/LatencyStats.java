@@ -0,0 +1,60 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class LatencyStats {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final long[] sortedLatencies;
+    private final long errors;
+    private final long elapsedNanos;
+
+    LatencyStats(long[] sortedLatencies, long errors, long elapsedNanos) {
+        this.sortedLatencies = sortedLatencies;
+        this.errors = errors;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    long requests() {
+        return sortedLatencies.length;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    double throughput() {
+        return elapsedNanos == 0 ? 0 : sortedLatencies.length / (elapsedNanos / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Nearest-rank percentile in milliseconds.
+     */
+    double percentileMillis(double percentile) {
+        if (sortedLatencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100d * sortedLatencies.length);
+        int index = Math.min(Math.max(rank - 1, 0), sortedLatencies.length - 1);
+        return sortedLatencies[index] / NANOS_PER_MILLI;
+    }
+
+    double maxMillis() {
+        return sortedLatencies.length == 0 ? 0 : sortedLatencies[sortedLatencies.length - 1] / NANOS_PER_MILLI;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", requests());
+        map.put("errors", errors());
+        map.put("throughputPerSecond", throughput());
+        map.put("p50Millis", percentileMillis(50));
+        map.put("p95Millis", percentileMillis(95));
+        map.put("p99Millis", percentileMillis(99));
+        map.put("maxMillis", maxMillis());
+        return map;
+    }
+}
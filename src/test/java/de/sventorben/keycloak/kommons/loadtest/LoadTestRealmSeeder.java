@@ -0,0 +1,183 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import jakarta.ws.rs.core.Response;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.ClientResource;
+import org.keycloak.admin.client.resource.GroupResource;
+import org.keycloak.admin.client.resource.OrganizationsResource;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.representations.idm.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.keycloak.models.Constants.CFG_DELIMITER;
+
+/**
+ * Seeds a realm with organizations, an {@code organizations/<alias>/<group>} group hierarchy, users that are
+ * members of every organization and of every other group, and one public client per {@link Scenario}.
+ */
+final class LoadTestRealmSeeder {
+
+    static final String REALM = "kommons-loadtest";
+    static final String PASSWORD = "test";
+
+    private static final String ORGANIZATION_SCOPE = "organization";
+
+    private final Keycloak admin;
+    private final LoadTestSettings settings;
+
+    LoadTestRealmSeeder(Keycloak admin, LoadTestSettings settings) {
+        this.admin = admin;
+        this.settings = settings;
+    }
+
+    List<String> seed() {
+        RealmRepresentation realmRepresentation = new RealmRepresentation();
+        realmRepresentation.setRealm(REALM);
+        realmRepresentation.setEnabled(true);
+        realmRepresentation.setOrganizationsEnabled(true);
+        admin.realms().create(realmRepresentation);
+        RealmResource realm = admin.realm(REALM);
+
+        List<String> usernames = new ArrayList<>();
+        List<String> userIds = new ArrayList<>();
+        for (int u = 0; u < settings.users(); u++) {
+            String username = "user-" + u;
+            usernames.add(username);
+            userIds.add(createUser(realm, username));
+        }
+
+        GroupRepresentation rootGroup = new GroupRepresentation();
+        rootGroup.setName("organizations");
+        String rootGroupId = createdId(realm.groups().add(rootGroup));
+
+        OrganizationsResource organizations = realm.organizations();
+        for (int o = 0; o < settings.organizations(); o++) {
+            String alias = "org-" + o;
+            String organizationId = createOrganization(organizations, alias);
+            userIds.forEach(userId -> expectStatus(organizations.get(organizationId).members().addMember(userId), 201));
+
+            GroupResource organizationGroup = realm.groups().group(createSubGroup(realm.groups().group(rootGroupId), alias));
+            for (int g = 0; g < settings.groupsPerOrganization(); g++) {
+                String groupId = createSubGroup(organizationGroup, alias + "-group-" + g);
+                if (g % 2 == 0) {
+                    userIds.forEach(userId -> realm.users().get(userId).joinGroup(groupId));
+                }
+            }
+        }
+
+        ClientScopeRepresentation organizationScope = organizationScope(realm);
+        for (Scenario scenario : Scenario.values()) {
+            createClient(realm, scenario, organizationScope);
+        }
+        return usernames;
+    }
+
+    private static String createUser(RealmResource realm, String username) {
+        CredentialRepresentation password = new CredentialRepresentation();
+        password.setType(CredentialRepresentation.PASSWORD);
+        password.setValue(PASSWORD);
+        password.setTemporary(false);
+
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(username);
+        user.setEmail(username + "@kommons.example");
+        user.setFirstName(username);
+        user.setLastName(username);
+        user.setEmailVerified(true);
+        user.setEnabled(true);
+        user.setCredentials(List.of(password));
+        return createdId(realm.users().create(user));
+    }
+
+    private static String createOrganization(OrganizationsResource organizations, String alias) {
+        OrganizationDomainRepresentation domain = new OrganizationDomainRepresentation();
+        domain.setName(alias + ".kommons.example");
+
+        OrganizationRepresentation organization = new OrganizationRepresentation();
+        organization.setName(alias);
+        organization.setAlias(alias);
+        organization.setEnabled(true);
+        organization.addDomain(domain);
+        return createdId(organizations.create(organization));
+    }
+
+    private static String createSubGroup(GroupResource parent, String name) {
+        GroupRepresentation group = new GroupRepresentation();
+        group.setName(name);
+        return createdId(parent.subGroup(group));
+    }
+
+    private static ClientScopeRepresentation organizationScope(RealmResource realm) {
+        return realm.clientScopes().findAll().stream()
+            .filter(it -> ORGANIZATION_SCOPE.equals(it.getName()))
+            .findFirst()
+            .orElseThrow(() -> new IllegalStateException("Client scope '" + ORGANIZATION_SCOPE + "' not found"));
+    }
+
+    private void createClient(RealmResource realm, Scenario scenario, ClientScopeRepresentation organizationScope) {
+        ClientRepresentation client = new ClientRepresentation();
+        client.setClientId(scenario.clientId());
+        client.setPublicClient(true);
+        client.setDirectAccessGrantsEnabled(true);
+        client.setStandardFlowEnabled(false);
+
+        Map<String, String> attributes = new HashMap<>();
+        List<ProtocolMapperRepresentation> mappers = new ArrayList<>();
+        if (scenario.orgGroups()) {
+            mappers.add(mapper("kommons-org-groups", "kommons-orgs-group-mapper", Map.of()));
+        }
+        if (scenario.clientAttributes()) {
+            List<String> claimNames = new ArrayList<>();
+            List<String> attributeNames = new ArrayList<>();
+            for (int a = 0; a < settings.clientAttributes(); a++) {
+                claimNames.add("kommons_claim_" + a);
+                attributeNames.add("kommons.attribute." + a);
+                attributes.put("kommons.attribute." + a, a % 2 == 0 ? Integer.toString(a) : "value-" + a);
+            }
+            mappers.add(mapper("kommons-client-attributes", "kommons-client-attributes-claim-mapper", Map.of(
+                "kommons.client.attr.claim.names", String.join(CFG_DELIMITER, claimNames),
+                "kommons.client.attr.attribute.names", String.join(CFG_DELIMITER, attributeNames))));
+        }
+        client.setAttributes(attributes);
+        client.setProtocolMappers(mappers);
+
+        ClientResource clientResource = realm.clients().get(createdId(realm.clients().create(client)));
+        boolean hasOrganizationScope = clientResource.getOptionalClientScopes().stream()
+            .anyMatch(it -> organizationScope.getId().equals(it.getId()));
+        if (!hasOrganizationScope) {
+            clientResource.addOptionalClientScope(organizationScope.getId());
+        }
+    }
+
+    private static ProtocolMapperRepresentation mapper(String name, String type, Map<String, String> config) {
+        Map<String, String> mapperConfig = new HashMap<>(config);
+        mapperConfig.put("access.token.claim", "true");
+        mapperConfig.put("id.token.claim", "true");
+        mapperConfig.put("introspection.token.claim", "true");
+
+        ProtocolMapperRepresentation mapper = new ProtocolMapperRepresentation();
+        mapper.setName(name);
+        mapper.setProtocol("openid-connect");
+        mapper.setProtocolMapper(type);
+        mapper.setConfig(mapperConfig);
+        return mapper;
+    }
+
+    private static String createdId(Response response) {
+        try (response) {
+            expectStatus(response, 201);
+            String location = response.getHeaderString("Location");
+            return location.substring(location.lastIndexOf('/') + 1);
+        }
+    }
+
+    private static void expectStatus(Response response, int status) {
+        if (response.getStatus() != status) {
+            throw new IllegalStateException("Seeding failed with status " + response.getStatus() + ": " + response.readEntity(String.class));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shape of the seeded realm and of the generated load, configurable via system properties, e.g.
+ * {@code -Dkommons.loadtest.organizations=100}.
+ */
+record LoadTestSettings(
+    int organizations,
+    int groupsPerOrganization,
+    int clientAttributes,
+    int users,
+    int concurrency,
+    Duration warmup,
+    Duration duration,
+    Path resultDirectory) {
+
+    private static final String PREFIX = "kommons.loadtest.";
+
+    static LoadTestSettings fromSystemProperties() {
+        return new LoadTestSettings(
+            Integer.getInteger(PREFIX + "organizations", 10),
+            Integer.getInteger(PREFIX + "groups", 10),
+            Integer.getInteger(PREFIX + "clientAttributes", 10),
+            Integer.getInteger(PREFIX + "users", 20),
+            Integer.getInteger(PREFIX + "concurrency", 16),
+            Duration.ofSeconds(Long.getLong(PREFIX + "warmupSeconds", 10)),
+            Duration.ofSeconds(Long.getLong(PREFIX + "durationSeconds", 30)),
+            Path.of(System.getProperty(PREFIX + "resultDirectory", "target/loadtest")));
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("organizations", organizations);
+        map.put("groupsPerOrganization", groupsPerOrganization);
+        map.put("clientAttributes", clientAttributes);
+        map.put("users", users);
+        map.put("concurrency", concurrency);
+        map.put("warmupSeconds", warmup.toSeconds());
+        map.put("durationSeconds", duration.toSeconds());
+        return map;
+    }
+}
@@ -0,0 +1,32 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+/**
+ * One client per combination of Kommons mappers, so that latency can be compared with and without each mapper.
+ */
+enum Scenario {
+
+    BASELINE(false, false),
+    ORG_GROUPS(true, false),
+    CLIENT_ATTRIBUTES(false, true),
+    ALL(true, true);
+
+    private final boolean orgGroups;
+    private final boolean clientAttributes;
+
+    Scenario(boolean orgGroups, boolean clientAttributes) {
+        this.orgGroups = orgGroups;
+        this.clientAttributes = clientAttributes;
+    }
+
+    boolean orgGroups() {
+        return orgGroups;
+    }
+
+    boolean clientAttributes() {
+        return clientAttributes;
+    }
+
+    String clientId() {
+        return "loadtest-" + name().toLowerCase().replace('_', '-');
+    }
+}
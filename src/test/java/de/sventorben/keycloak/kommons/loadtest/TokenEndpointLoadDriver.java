@@ -0,0 +1,133 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drives concurrent token requests against the token endpoint of the seeded realm.
+ * <p>
+ * Each worker runs on its own thread in a closed loop, i.e. it sends the next request as soon as the previous one
+ * has been answered. The project targets Java 17, hence platform threads instead of virtual threads; with one
+ * blocking request in flight per worker the number of threads equals the configured concurrency.
+ */
+final class TokenEndpointLoadDriver {
+
+    enum Grant {
+        PASSWORD,
+        REFRESH_TOKEN
+    }
+
+    private static final String SCOPE = "openid organization:*";
+
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+    private final URI tokenEndpoint;
+    private final List<String> usernames;
+    private final int concurrency;
+
+    TokenEndpointLoadDriver(String authServerUrl, List<String> usernames, int concurrency) {
+        this.tokenEndpoint = URI.create(authServerUrl + "/realms/" + LoadTestRealmSeeder.REALM + "/protocol/openid-connect/token");
+        this.usernames = usernames;
+        this.concurrency = concurrency;
+    }
+
+    LatencyStats run(Scenario scenario, Grant grant, Duration warmup, Duration duration) throws InterruptedException {
+        drive(scenario, grant, warmup);
+        return drive(scenario, grant, duration);
+    }
+
+    private LatencyStats drive(Scenario scenario, Grant grant, Duration duration) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            long start = System.nanoTime();
+            long deadline = start + duration.toNanos();
+            List<Future<LatencyRecorder>> futures = new ArrayList<>();
+            for (int w = 0; w < concurrency; w++) {
+                String username = usernames.get(w % usernames.size());
+                futures.add(workers.submit(() -> work(scenario, grant, username, deadline)));
+            }
+            List<LatencyRecorder> recorders = new ArrayList<>();
+            for (Future<LatencyRecorder> future : futures) {
+                recorders.add(future.get());
+            }
+            return LatencyRecorder.merge(recorders, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load worker failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private LatencyRecorder work(Scenario scenario, Grant grant, String username, long deadline) throws IOException, InterruptedException {
+        LatencyRecorder recorder = new LatencyRecorder();
+        String passwordGrant = form(
+            "grant_type", "password",
+            "client_id", scenario.clientId(),
+            "username", username,
+            "password", LoadTestRealmSeeder.PASSWORD,
+            "scope", SCOPE);
+        String body = passwordGrant;
+        if (grant == Grant.REFRESH_TOKEN) {
+            String refreshToken = requestToken(passwordGrant).path("refresh_token").asText();
+            body = form(
+                "grant_type", "refresh_token",
+                "client_id", scenario.clientId(),
+                "refresh_token", refreshToken);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(tokenEndpoint)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        while (System.nanoTime() < deadline) {
+            long start = System.nanoTime();
+            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
+            long latency = System.nanoTime() - start;
+            if (response.statusCode() == 200) {
+                recorder.record(latency);
+            } else {
+                recorder.error();
+            }
+        }
+        return recorder;
+    }
+
+    private JsonNode requestToken(String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(tokenEndpoint)
+            .header("Content-Type", "application/x-www-form-urlencoded")
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Token request failed with status " + response.statusCode() + ": " + response.body());
+        }
+        return JsonSerialization.readValue(response.body(), JsonNode.class);
+    }
+
+    private static String form(String... keysAndValues) {
+        StringBuilder form = new StringBuilder();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (form.length() > 0) {
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(keysAndValues[i], StandardCharsets.UTF_8))
+                .append('=')
+                .append(URLEncoder.encode(keysAndValues[i + 1], StandardCharsets.UTF_8));
+        }
+        return form.toString();
+    }
+}
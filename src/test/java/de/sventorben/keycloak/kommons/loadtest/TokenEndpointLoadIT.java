@@ -0,0 +1,94 @@
+package de.sventorben.keycloak.kommons.loadtest;
+
+import dasniko.testcontainers.keycloak.KeycloakContainer;
+import de.sventorben.keycloak.kommons.KeycloakDockerContainer;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.keycloak.util.JsonSerialization;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Token endpoint load test against a local Keycloak with Kommons installed.
+ * <p>
+ * Not part of the regular integration tests, run it explicitly with:
+ * <pre>
+ * mvn -B test-compile failsafe:integration-test -Dit.test=TokenEndpointLoadIT -Dkommons.loadtest=true
+ * </pre>
+ * See {@link LoadTestSettings} for the tunables. Results are written as JSON to {@code target/loadtest}.
+ */
+@Testcontainers
+@EnabledIfSystemProperty(named = "kommons.loadtest", matches = "true")
+class TokenEndpointLoadIT {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TokenEndpointLoadIT.class);
+
+    private static final LoadTestSettings SETTINGS = LoadTestSettings.fromSystemProperties();
+
+    @Container
+    private static final KeycloakContainer KEYCLOAK_CONTAINER = KeycloakDockerContainer.create()
+        .withFeaturesEnabled("organization");
+
+    private static List<String> usernames;
+
+    @BeforeAll
+    static void seedRealm() {
+        usernames = new LoadTestRealmSeeder(KEYCLOAK_CONTAINER.getKeycloakAdminClient(), SETTINGS).seed();
+    }
+
+    @Test
+    @DisplayName("Given seeded realm, when token requests are issued concurrently, then latency percentiles are reported per scenario")
+    void tokenEndpointLatency() throws InterruptedException, IOException {
+        TokenEndpointLoadDriver driver = new TokenEndpointLoadDriver(KEYCLOAK_CONTAINER.getAuthServerUrl(), usernames, SETTINGS.concurrency());
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (Scenario scenario : Scenario.values()) {
+            for (TokenEndpointLoadDriver.Grant grant : TokenEndpointLoadDriver.Grant.values()) {
+                LatencyStats stats = driver.run(scenario, grant, SETTINGS.warmup(), SETTINGS.duration());
+                LOGGER.info(String.format("%-18s %-14s %8d req %6d err %9.1f req/s  p50 %7.2f ms  p95 %7.2f ms  p99 %7.2f ms",
+                    scenario, grant, stats.requests(), stats.errors(), stats.throughput(),
+                    stats.percentileMillis(50), stats.percentileMillis(95), stats.percentileMillis(99)));
+
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("scenario", scenario.name());
+                result.put("grant", grant.name());
+                result.putAll(stats.toMap());
+                results.add(result);
+
+                assertThat(stats.requests()).as("successful requests of %s/%s", scenario, grant).isPositive();
+            }
+        }
+
+        writeReport(results);
+    }
+
+    private static void writeReport(List<Map<String, Object>> results) throws IOException {
+        Instant now = Instant.now();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("timestamp", now.toString());
+        report.put("keycloakImage", KEYCLOAK_CONTAINER.getDockerImageName());
+        report.put("settings", SETTINGS.toMap());
+        report.put("results", results);
+
+        Files.createDirectories(SETTINGS.resultDirectory());
+        Path file = SETTINGS.resultDirectory().resolve("token-endpoint-" + now.toEpochMilli() + ".json");
+        Files.write(file, JsonSerialization.writeValueAsPrettyString(report).getBytes(StandardCharsets.UTF_8));
+        LOGGER.info("Load test results written to " + file.toAbsolutePath());
+    }
+}
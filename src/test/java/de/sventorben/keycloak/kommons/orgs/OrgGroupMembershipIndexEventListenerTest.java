@@ -0,0 +1,234 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.events.admin.AdminEvent;
+import org.keycloak.events.admin.ResourceType;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.GroupProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.KeycloakTransactionManager;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.models.UserProvider;
+import org.keycloak.provider.ProviderEvent;
+import org.keycloak.provider.ProviderEventListener;
+import org.keycloak.storage.ReadOnlyException;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrgGroupMembershipIndexEventListenerTest {
+
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserModel user;
+    private GroupModel organizationGroup;
+    private GroupModel otherGroup;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(UUID.randomUUID().toString());
+        when(realm.isOrganizationsEnabled()).thenReturn(true);
+
+        GroupModel root = group("root", OrgGroupMembershipIndex.ROOT_GROUP_NAME, null);
+        GroupModel acme = group("acme", "acme", root);
+        organizationGroup = group("developers", "developers", acme);
+        otherGroup = group("other", "other", null);
+
+        user = mock(UserModel.class);
+        when(user.getId()).thenReturn("user");
+
+        RealmProvider realms = mock(RealmProvider.class);
+        when(realms.getRealm(realm.getId())).thenReturn(realm);
+        GroupProvider groups = mock(GroupProvider.class);
+        when(groups.getGroupById(realm, "developers")).thenReturn(organizationGroup);
+        when(groups.getGroupById(realm, "other")).thenReturn(otherGroup);
+        UserProvider users = mock(UserProvider.class);
+        when(users.getUserById(realm, "user")).thenReturn(user);
+        Map<String, Object> attributes = new HashMap<>();
+        session = mock(KeycloakSession.class);
+        when(session.getAttribute(anyString(), eq(Set.class))).thenAnswer(invocation -> attributes.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1))).when(session).setAttribute(anyString(), any());
+        when(session.getTransactionManager()).thenReturn(mock(KeycloakTransactionManager.class));
+        when(session.realms()).thenReturn(realms);
+        when(session.groups()).thenReturn(groups);
+        when(session.users()).thenReturn(users);
+    }
+
+    @Test
+    @DisplayName("Given a membership change in an organization group via the Admin API, when the event is handled, then the user is stamped")
+    void stampsUserOnMembershipAdminEvent() {
+        onAdminEvent(ResourceType.GROUP_MEMBERSHIP, "users/user/groups/developers");
+
+        verifyUserStamped();
+        verifyRealmNotStamped();
+    }
+
+    @Test
+    @DisplayName("Given a membership change in another group via the Admin API, when the event is handled, then nothing is stamped")
+    void ignoresMembershipAdminEventOfOtherGroups() {
+        onAdminEvent(ResourceType.GROUP_MEMBERSHIP, "users/user/groups/other");
+
+        verify(user, never()).setSingleAttribute(anyString(), anyString());
+        verifyRealmNotStamped();
+    }
+
+    @Test
+    @DisplayName("Given a removed group, when its Admin API event is handled, then the realm is stamped")
+    void stampsRealmOnGroupAdminEventOfUnknownGroup() {
+        onAdminEvent(ResourceType.GROUP, "groups/removed");
+
+        verifyRealmStamped();
+    }
+
+    @Test
+    @DisplayName("Given a change of another group via the Admin API, when the event is handled, then nothing is stamped")
+    void ignoresGroupAdminEventOfOtherGroups() {
+        onAdminEvent(ResourceType.GROUP, "groups/other");
+
+        verifyRealmNotStamped();
+    }
+
+    @Test
+    @DisplayName("Given an organization membership change, when the event is handled, then nothing is stamped")
+    void ignoresOrganizationMembershipAdminEvent() {
+        onAdminEvent(ResourceType.ORGANIZATION_MEMBERSHIP, "organizations/acme/members/user");
+
+        verify(user, never()).setSingleAttribute(anyString(), anyString());
+        verifyRealmNotStamped();
+    }
+
+    @Test
+    @DisplayName("Given a user joining an organization group by other means, when the model event is handled, then the user is stamped")
+    void stampsUserOnJoinEvent() {
+        GroupModel.GroupMemberJoinEvent event = mock(GroupModel.GroupMemberJoinEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(organizationGroup);
+        when(event.getUser()).thenReturn(user);
+
+        onProviderEvent(event);
+
+        verifyUserStamped();
+    }
+
+    @Test
+    @DisplayName("Given a user joining an organization group via the Admin API, when the model and the admin event are handled, then the user is stamped once")
+    void stampsUserOnceOnJoinEventAndAdminEvent() {
+        GroupModel.GroupMemberJoinEvent event = mock(GroupModel.GroupMemberJoinEvent.class);
+        when(event.getKeycloakSession()).thenReturn(session);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(organizationGroup);
+        when(event.getUser()).thenReturn(user);
+
+        onProviderEvent(event);
+        onAdminEvent(ResourceType.GROUP_MEMBERSHIP, "users/user/groups/developers");
+
+        verifyUserStamped();
+    }
+
+    @Test
+    @DisplayName("Given an organization group being removed via the Admin API, when the model and the admin event are handled, then the realm is stamped once")
+    void stampsRealmOnceOnGroupEventAndAdminEvent() {
+        GroupModel.GroupRemovedEvent event = mock(GroupModel.GroupRemovedEvent.class);
+        when(event.getKeycloakSession()).thenReturn(session);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(organizationGroup);
+
+        onProviderEvent(event);
+        onAdminEvent(ResourceType.GROUP, "groups/removed");
+
+        verifyRealmStamped();
+    }
+
+    @Test
+    @DisplayName("Given a read-only user leaving an organization group, when the model event is handled, then the realm is stamped")
+    void stampsRealmOnLeaveEventOfReadOnlyUser() {
+        doThrow(new ReadOnlyException("user is read-only")).when(user).setSingleAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), anyString());
+        GroupModel.GroupMemberLeaveEvent event = mock(GroupModel.GroupMemberLeaveEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(organizationGroup);
+        when(event.getUser()).thenReturn(user);
+
+        onProviderEvent(event);
+
+        verifyRealmStamped();
+    }
+
+    @Test
+    @DisplayName("Given an organization group being removed, when the model event is handled, then the realm is stamped")
+    void stampsRealmOnGroupEvent() {
+        GroupModel.GroupRemovedEvent event = mock(GroupModel.GroupRemovedEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(organizationGroup);
+
+        onProviderEvent(event);
+
+        verifyRealmStamped();
+    }
+
+    @Test
+    @DisplayName("Given another group being removed, when the model event is handled, then nothing is stamped")
+    void ignoresGroupEventOfOtherGroups() {
+        GroupModel.GroupRemovedEvent event = mock(GroupModel.GroupRemovedEvent.class);
+        when(event.getRealm()).thenReturn(realm);
+        when(event.getGroup()).thenReturn(otherGroup);
+
+        onProviderEvent(event);
+
+        verifyRealmNotStamped();
+    }
+
+    private void onAdminEvent(ResourceType resourceType, String resourcePath) {
+        AdminEvent event = new AdminEvent();
+        event.setRealmId(realm.getId());
+        event.setResourceType(resourceType);
+        event.setResourcePath(resourcePath);
+        new OrgGroupMembershipIndexEventListener().create(session).onEvent(event, false);
+    }
+
+    private static void onProviderEvent(ProviderEvent event) {
+        KeycloakSessionFactory factory = mock(KeycloakSessionFactory.class);
+        new OrgGroupMembershipIndexEventListener().postInit(factory);
+        ArgumentCaptor<ProviderEventListener> listener = ArgumentCaptor.forClass(ProviderEventListener.class);
+        verify(factory).register(listener.capture());
+        listener.getValue().onEvent(event);
+    }
+
+    private void verifyUserStamped() {
+        verify(user).setSingleAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), anyString());
+    }
+
+    private void verifyRealmStamped() {
+        verify(realm).setAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), anyString());
+    }
+
+    private void verifyRealmNotStamped() {
+        verify(realm, never()).setAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), any(String.class));
+    }
+
+    private static GroupModel group(String id, String name, GroupModel parent) {
+        GroupModel group = mock(GroupModel.class);
+        when(group.getId()).thenReturn(id);
+        when(group.getName()).thenReturn(name);
+        when(group.getParent()).thenReturn(parent);
+        return group;
+    }
+}
@@ -0,0 +1,260 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.keycloak.executors.ExecutorsProvider;
+import org.keycloak.models.GroupModel;
+import org.keycloak.models.GroupProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.RealmProvider;
+import org.keycloak.models.UserModel;
+import org.keycloak.storage.ReadOnlyException;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrgGroupMembershipIndexTest {
+
+    private static final List<String> ALL_ORGANIZATIONS = List.of("acme", "globex");
+
+    private final Set<GroupModel> memberships = new HashSet<>();
+
+    private KeycloakSession session;
+    private RealmModel realm;
+    private UserModel user;
+    private GroupModel developers;
+    private GroupModel admins;
+    private GroupModel ops;
+
+    @BeforeEach
+    void setUp() {
+        realm = mock(RealmModel.class);
+        when(realm.getId()).thenReturn(UUID.randomUUID().toString());
+
+        developers = group("developers");
+        admins = group("admins");
+        GroupModel acme = group("acme", developers, admins);
+        ops = group("ops");
+        GroupModel globex = group("globex", ops);
+        GroupModel root = group(OrgGroupMembershipIndex.ROOT_GROUP_NAME, acme, globex);
+
+        GroupProvider groups = mock(GroupProvider.class);
+        when(groups.getGroupByName(realm, null, OrgGroupMembershipIndex.ROOT_GROUP_NAME)).thenReturn(root);
+        session = mock(KeycloakSession.class);
+        when(session.groups()).thenReturn(groups);
+
+        user = mock(UserModel.class);
+        when(user.getId()).thenReturn("user");
+        when(user.isMemberOf(any())).thenAnswer(invocation -> memberships.contains(invocation.<GroupModel>getArgument(0)));
+    }
+
+    @Test
+    @DisplayName("Given a user in organization groups, when the index is read, then only organizations with groups of the user are listed")
+    void indexesGroupNamesByOrganization() {
+        memberships.add(developers);
+
+        assertThat(groupNames(ALL_ORGANIZATIONS, 1))
+            .containsExactly(Map.entry("acme", List.of("developers")));
+        assertThat(OrgGroupMembershipIndex.organizationAliases(session, realm))
+            .containsExactly("acme", "globex");
+    }
+
+    @Test
+    @DisplayName("Given a user not stored via JPA, when the groups of one organization are requested, then only that organization is resolved")
+    void resolvesRequestedOrganizationsOnly() {
+        memberships.add(developers);
+        memberships.add(ops);
+
+        assertThat(groupNames(List.of("acme"), 1))
+            .containsExactly(Map.entry("acme", List.of("developers")));
+        verify(user, never()).isMemberOf(ops);
+
+        assertThat(groupNames(List.of("globex"), 1))
+            .containsExactly(Map.entry("acme", List.of("developers")), Map.entry("globex", List.of("ops")));
+        verify(user, times(1)).isMemberOf(developers);
+    }
+
+    @Test
+    @DisplayName("Given an indexed user, when the membership changes without a new stamp, then the indexed entry is returned")
+    void readsIndexedEntry() {
+        memberships.add(developers);
+        groupNames(ALL_ORGANIZATIONS, 1);
+
+        memberships.add(admins);
+
+        assertThat(groupNames(ALL_ORGANIZATIONS, 1))
+            .containsExactly(Map.entry("acme", List.of("developers")));
+    }
+
+    @Test
+    @DisplayName("Given an indexed user, when the user's stamp changes, then the entry is rebuilt")
+    void rebuildsOnNewUserStamp() {
+        memberships.add(developers);
+        groupNames(ALL_ORGANIZATIONS, 1);
+
+        memberships.add(admins);
+        when(user.getFirstAttribute(OrgGroupMembershipIndex.VERSION_ATTRIBUTE)).thenReturn("changed-on-another-node");
+
+        assertThat(groupNames(ALL_ORGANIZATIONS, 1))
+            .containsExactly(Map.entry("acme", List.of("developers", "admins")));
+    }
+
+    @Test
+    @DisplayName("Given an indexed user, when the realm's stamp changes, then the entry is rebuilt")
+    void rebuildsOnNewRealmStamp() {
+        groupNames(ALL_ORGANIZATIONS, 1);
+
+        memberships.add(admins);
+        when(realm.getAttribute(OrgGroupMembershipIndex.VERSION_ATTRIBUTE)).thenReturn("changed-on-another-node");
+
+        assertThat(groupNames(ALL_ORGANIZATIONS, 1))
+            .containsExactly(Map.entry("acme", List.of("admins")));
+    }
+
+    @Test
+    @DisplayName("Given a user of a read-only store, when the user changes, then the realm's stamp is bumped instead")
+    void stampsRealmForReadOnlyUsers() {
+        doThrow(new ReadOnlyException("user is read-only")).when(user).setSingleAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), anyString());
+
+        OrgGroupMembershipIndex.userChanged(realm, user);
+
+        verify(realm).setAttribute(eq(OrgGroupMembershipIndex.VERSION_ATTRIBUTE), anyString());
+    }
+
+    @Test
+    @DisplayName("Given a snapshot of the index, when it is restored, then entries are served without resolving memberships")
+    void restoresSnapshot(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("org-groups.snapshot");
+        memberships.add(developers);
+        groupNames(ALL_ORGANIZATIONS, 1);
+        OrgGroupMembershipIndex.writeSnapshot(file);
+        OrgGroupMembershipIndex.invalidateLocally(realm.getId());
+        memberships.add(admins);
+        RealmProvider realms = mock(RealmProvider.class);
+        when(realms.getRealm(realm.getId())).thenReturn(realm);
+        when(realm.isOrganizationsEnabled()).thenReturn(true);
+        when(session.realms()).thenReturn(realms);
+
+        assertThat(OrgGroupMembershipIndex.restoreSnapshot(session, OrgGroupMembershipSnapshot.read(file))).isEqualTo(1);
+
+        assertThat(groupNames(ALL_ORGANIZATIONS, 1))
+            .containsExactly(Map.entry("acme", List.of("developers")));
+    }
+
+    @Test
+    @DisplayName("Given a snapshot of the index, when the realm's stamp has changed since, then its entries are not restored")
+    void skipsSnapshotOfOutdatedRealm(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("org-groups.snapshot");
+        groupNames(ALL_ORGANIZATIONS, 1);
+        OrgGroupMembershipIndex.writeSnapshot(file);
+        RealmProvider realms = mock(RealmProvider.class);
+        when(realms.getRealm(realm.getId())).thenReturn(realm);
+        when(realm.isOrganizationsEnabled()).thenReturn(true);
+        when(session.realms()).thenReturn(realms);
+
+        when(realm.getAttribute(OrgGroupMembershipIndex.VERSION_ATTRIBUTE)).thenReturn("changed-while-down");
+
+        assertThat(OrgGroupMembershipIndex.restoreSnapshot(session, OrgGroupMembershipSnapshot.read(file))).isZero();
+    }
+
+    @Test
+    @DisplayName("Given a saturated executor, when groups are resolved in parallel, then the calling thread resolves all organizations itself")
+    void resolvesSharesNotStartedByWorkers() throws InterruptedException {
+        memberships.add(developers);
+        memberships.add(ops);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ExecutorsProvider executors = mock(ExecutorsProvider.class);
+        when(executors.getExecutor(any())).thenReturn(executor);
+        when(session.getProvider(ExecutorsProvider.class)).thenReturn(executors);
+
+        try {
+            assertThat(groupNames(ALL_ORGANIZATIONS, 2))
+                .containsExactly(Map.entry("acme", List.of("developers")), Map.entry("globex", List.of("ops")));
+        } finally {
+            blocked.countDown();
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a user that a worker session cannot see, when groups are resolved in parallel, then the calling thread resolves the worker's share")
+    void resolvesSharesOfFailedWorkers() throws InterruptedException {
+        memberships.add(developers);
+        memberships.add(ops);
+        KeycloakSession workerSession = mock(KeycloakSession.class, RETURNS_DEEP_STUBS);
+        when(workerSession.realms().getRealm(realm.getId())).thenReturn(realm);
+        when(workerSession.users().getUserById(realm, "user")).thenReturn(null);
+        KeycloakSessionFactory sessionFactory = mock(KeycloakSessionFactory.class);
+        CountDownLatch workerStarted = new CountDownLatch(1);
+        when(sessionFactory.create()).thenAnswer(invocation -> {
+            workerStarted.countDown();
+            return workerSession;
+        });
+        // the calling thread waits for the worker, so it cannot take over the worker's share before it has started
+        when(user.isMemberOf(any())).thenAnswer(invocation -> workerStarted.await(10, TimeUnit.SECONDS)
+            && memberships.contains(invocation.<GroupModel>getArgument(0)));
+        when(session.getKeycloakSessionFactory()).thenReturn(sessionFactory);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ExecutorsProvider executors = mock(ExecutorsProvider.class);
+        when(executors.getExecutor(any())).thenReturn(executor);
+        when(session.getProvider(ExecutorsProvider.class)).thenReturn(executors);
+
+        try {
+            assertThat(groupNames(ALL_ORGANIZATIONS, 2))
+                .containsExactly(Map.entry("acme", List.of("developers")), Map.entry("globex", List.of("ops")));
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    private Map<String, List<String>> groupNames(List<String> organizationAliases, int parallelism) {
+        Map<String, List<String>> groupNames = new LinkedHashMap<>();
+        OrgGroupMembershipIndex.groupsByOrganization(session, realm, user, organizationAliases, parallelism)
+            .forEach((alias, groups) -> groupNames.put(alias, groups.names()));
+        return groupNames;
+    }
+
+    private static GroupModel group(String name, GroupModel... subGroups) {
+        GroupModel group = mock(GroupModel.class);
+        when(group.getName()).thenReturn(name);
+        when(group.getSubGroupsStream()).thenAnswer(invocation -> Arrays.stream(subGroups));
+        return group;
+    }
+}
@@ -0,0 +1,161 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import dasniko.testcontainers.keycloak.KeycloakContainer;
+import de.sventorben.keycloak.kommons.KeycloakDockerContainer;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.GroupResource;
+import org.keycloak.admin.client.resource.OrganizationsResource;
+import org.keycloak.admin.client.resource.RealmResource;
+import org.keycloak.jose.jws.JWSInput;
+import org.keycloak.jose.jws.JWSInputException;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.representations.idm.GroupRepresentation;
+import org.keycloak.representations.idm.OrganizationDomainRepresentation;
+import org.keycloak.representations.idm.OrganizationRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.testcontainers.containers.Network;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs the organization-aware group mapper against Keycloak backed by PostgreSQL, where group memberships of local
+ * users are resolved with a single query.
+ */
+@Testcontainers
+class OrgGroupMembershipJpaIT {
+
+    private static final Network NETWORK = Network.newNetwork();
+
+    private static final String REALM = "OidcOrgGroupsIT";
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:17-alpine")
+        .withNetwork(NETWORK)
+        .withNetworkAliases("postgres")
+        .withDatabaseName("keycloak")
+        .withUsername("keycloak")
+        .withPassword("keycloak");
+
+    @Container
+    private static final KeycloakContainer KEYCLOAK_CONTAINER = KeycloakDockerContainer.create(NETWORK)
+        .withRealmImportFile("OidcOrgGroupsIT-realm.json")
+        .withFeaturesEnabled("organization")
+        .withEnv("KC_DB", "postgres")
+        .withEnv("KC_DB_URL", "jdbc:postgresql://postgres:5432/keycloak")
+        .withEnv("KC_DB_USERNAME", "keycloak")
+        .withEnv("KC_DB_PASSWORD", "keycloak")
+        .withEnv("KC_LOG_LEVEL", "INFO,de.sventorben.keycloak.kommons.orgs:debug")
+        .dependsOn(POSTGRES);
+
+    private static String userId;
+
+    @BeforeAll
+    static void createOrganizationsAndMembership() {
+        RealmResource realm = realm();
+        UserRepresentation user = realm.users().search("test", true).stream()
+            .findFirst().orElseThrow(() -> new IllegalStateException("User not found"));
+        userId = user.getId();
+
+        OrganizationsResource organizations = realm.organizations();
+        createOrganization(organizations, "org-1", user);
+        createOrganization(organizations, "org-2", user);
+        createOrganization(organizations, "org-3", user);
+
+        // a membership nested below an organization's group counts for that group
+        GroupRepresentation team = new GroupRepresentation();
+        team.setName("team");
+        GroupResource org31 = realm.groups().group(realm.getGroupByPath("/organizations/org-3/org-3-1").getId());
+        try (Response response = org31.subGroup(team)) {
+            assertThat(response.getStatus()).isEqualTo(201);
+        }
+        String teamId = realm.getGroupByPath("/organizations/org-3/org-3-1/team").getId();
+        realm.users().get(userId).joinGroup(teamId);
+    }
+
+    @Test
+    @DisplayName("Given memberships stored in PostgreSQL, when a token is requested, then the groups are resolved with a single query")
+    void resolvesGroupsWithSingleQuery() throws JWSInputException {
+        Map<String, Map<String, List<String>>> organizations = organizationClaim(getAccessToken());
+
+        assertThat(organizations.get("org-1").get("groups")).containsExactly("org-1-1");
+        assertThat(organizations.get("org-2").get("groups")).containsExactly("org-2-1", "org-2-2");
+        assertThat(KEYCLOAK_CONTAINER.getLogs()).contains("with a single query");
+    }
+
+    @Test
+    @DisplayName("Given a membership in a subgroup of an organization's group, when a token is requested, then the organization's group is included")
+    void attributesNestedMemberships() throws JWSInputException {
+        Map<String, Map<String, List<String>>> organizations = organizationClaim(getAccessToken());
+
+        assertThat(organizations.get("org-3").get("groups")).containsExactly("org-3-1");
+    }
+
+    @Test
+    @DisplayName("Given an indexed user, when the user leaves a group via the Admin API, then the next token no longer contains it")
+    void reflectsMembershipChanges() throws JWSInputException {
+        RealmResource realm = realm();
+        String groupId = realm.getGroupByPath("/organizations/org-2/org-2-2").getId();
+        getAccessToken();
+
+        realm.users().get(userId).leaveGroup(groupId);
+        try {
+            assertThat(organizationClaim(getAccessToken()).get("org-2").get("groups")).containsExactly("org-2-1");
+        } finally {
+            realm.users().get(userId).joinGroup(groupId);
+        }
+    }
+
+    private static RealmResource realm() {
+        return KEYCLOAK_CONTAINER.getKeycloakAdminClient().realm(REALM);
+    }
+
+    private static void createOrganization(OrganizationsResource organizations, String name, UserRepresentation member) {
+        OrganizationRepresentation organization = new OrganizationRepresentation();
+        organization.setName(name);
+        organization.setEnabled(true);
+        OrganizationDomainRepresentation domain = new OrganizationDomainRepresentation();
+        domain.setName(name);
+        organization.addDomain(domain);
+
+        try (Response response = organizations.create(organization)) {
+            assertThat(response.getStatus()).isEqualTo(201);
+            String location = response.getHeaderString("Location");
+            String orgId = location.substring(location.lastIndexOf("/") + 1);
+            try (Response membership = organizations.get(orgId).members().addMember(member.getId())) {
+                assertThat(membership.getStatus()).isEqualTo(201);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, List<String>>> organizationClaim(AccessToken token) {
+        return (Map<String, Map<String, List<String>>>) token.getOtherClaims().get("organization");
+    }
+
+    private static AccessToken getAccessToken() throws JWSInputException {
+        Keycloak ropc = Keycloak.getInstance(
+            KEYCLOAK_CONTAINER.getAuthServerUrl(),
+            REALM,
+            "test",
+            "test",
+            "test",
+            null,
+            null,
+            null,
+            false,
+            null,
+            "openid organization:*");
+        String tokenString = ropc.tokenManager().getAccessToken().getToken();
+        return new JWSInput(tokenString).readJsonContent(AccessToken.class);
+    }
+}
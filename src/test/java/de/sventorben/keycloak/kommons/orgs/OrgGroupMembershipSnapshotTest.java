@@ -0,0 +1,55 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrgGroupMembershipSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    @DisplayName("Given a written snapshot, when it is read, then all entries are restored")
+    void readsWrittenSnapshot() throws IOException {
+        Path file = directory.resolve("org-groups.snapshot");
+        OrgGroupMembershipSnapshot.Entry entry = new OrgGroupMembershipSnapshot.Entry("user", "realm-stamp/user-stamp", 42L,
+            Map.of("acme", List.of("developers", "admins"), "globex", List.of("ops")));
+
+        OrgGroupMembershipSnapshot.write(file, 4711L, Map.of("realm", List.of(entry)));
+        OrgGroupMembershipSnapshot.Content content = OrgGroupMembershipSnapshot.read(file);
+
+        assertThat(content.createdAt()).isEqualTo(4711L);
+        assertThat(content.entriesByRealm()).containsExactly(Map.entry("realm", List.of(entry)));
+        try (var files = Files.list(directory)) {
+            assertThat(files).containsExactly(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Given a snapshot with a modified byte, when it is read, then it is ignored")
+    void ignoresCorruptSnapshot() throws IOException {
+        Path file = directory.resolve("org-groups.snapshot");
+        OrgGroupMembershipSnapshot.write(file, 4711L, Map.of("realm", List.of(
+            new OrgGroupMembershipSnapshot.Entry("user", "/", 42L, Map.of("acme", List.of("developers"))))));
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+
+        assertThat(OrgGroupMembershipSnapshot.read(file)).isNull();
+    }
+
+    @Test
+    @DisplayName("Given no snapshot, when it is read, then there is nothing to restore")
+    void ignoresMissingSnapshot() throws IOException {
+        assertThat(OrgGroupMembershipSnapshot.read(directory.resolve("missing.snapshot"))).isNull();
+    }
+}
@@ -0,0 +1,46 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.keycloak.representations.AccessToken;
+import org.keycloak.util.JsonSerialization;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrganizationGroupsTest {
+
+    @Test
+    @DisplayName("Given group names, when they are serialized, then they form an escaped JSON array, optionally prefixed with the organization alias")
+    void serializesGroupNames() {
+        OrganizationGroups groups = OrganizationGroups.of("acme", List.of("developers", "say \"hi\""));
+
+        assertThat(groups.json(false).rawValue()).isEqualTo("[\"developers\",\"say \\\"hi\\\"\"]");
+        assertThat(groups.json(true).rawValue()).isEqualTo("[\"acme_developers\",\"acme_say \\\"hi\\\"\"]");
+    }
+
+    @Test
+    @DisplayName("Given the groups of several organizations, when they are concatenated, then empty organizations are skipped")
+    void concatenatesGroupNames() {
+        List<OrganizationGroups> groups = List.of(
+            OrganizationGroups.of("acme", List.of("developers", "admins")),
+            OrganizationGroups.EMPTY,
+            OrganizationGroups.of("globex", List.of("ops")));
+
+        assertThat(OrganizationGroups.concat(groups, false).rawValue()).isEqualTo("[\"developers\",\"admins\",\"ops\"]");
+        assertThat(OrganizationGroups.concat(groups.subList(0, 2), true)).isSameAs(groups.get(0).json(true));
+    }
+
+    @Test
+    @DisplayName("Given a token with shared group names, when it is serialized and parsed, then the claim is a plain JSON array")
+    void serializesIntoTokens() throws IOException {
+        AccessToken token = new AccessToken();
+        token.setOtherClaims("groups", OrganizationGroups.of("acme", List.of("developers")).json(false));
+
+        AccessToken parsed = JsonSerialization.readValue(JsonSerialization.writeValueAsBytes(token), AccessToken.class);
+
+        assertThat(parsed.getOtherClaims().get("groups")).isEqualTo(List.of("developers"));
+    }
+}
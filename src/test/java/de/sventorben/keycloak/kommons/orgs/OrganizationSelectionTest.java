@@ -0,0 +1,40 @@
+package de.sventorben.keycloak.kommons.orgs;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrganizationSelectionTest {
+
+    private static final List<String> ORGANIZATION_GROUPS = List.of("initech", "acme", "globex", "umbrella");
+
+    @Test
+    @DisplayName("Given requested organizations, when no limit is configured, then all with an organization group are selected in alphabetical order")
+    void selectsRequestedOrganizationsInAlphabeticalOrder() {
+        OrganizationSelection selection = OrganizationSelection.of(ORGANIZATION_GROUPS, List.of("umbrella", "unknown", "acme"), 0);
+
+        assertThat(selection.aliases()).containsExactly("acme", "umbrella");
+        assertThat(selection.overflow()).isFalse();
+    }
+
+    @Test
+    @DisplayName("Given more requested organizations than allowed, when selecting, then the first ones by alias are kept and the overflow is indicated")
+    void limitsOrganizations() {
+        OrganizationSelection selection = OrganizationSelection.of(ORGANIZATION_GROUPS, List.of("umbrella", "initech", "globex", "acme"), 2);
+
+        assertThat(selection.aliases()).containsExactly("acme", "globex");
+        assertThat(selection.overflow()).isTrue();
+    }
+
+    @Test
+    @DisplayName("Given exactly as many requested organizations as allowed, when selecting, then no overflow is indicated")
+    void doesNotIndicateOverflowAtTheLimit() {
+        OrganizationSelection selection = OrganizationSelection.of(ORGANIZATION_GROUPS, List.of("globex", "acme"), 2);
+
+        assertThat(selection.aliases()).containsExactly("acme", "globex");
+        assertThat(selection.overflow()).isFalse();
+    }
+}
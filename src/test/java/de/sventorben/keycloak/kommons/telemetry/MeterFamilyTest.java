@@ -0,0 +1,45 @@
+package de.sventorben.keycloak.kommons.telemetry;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MeterFamilyTest {
+
+    @Test
+    @DisplayName("Given a meter has been registered, when it is requested again, then the registered meter is returned")
+    void registersOncePerRealmAndKey() {
+        AtomicInteger registrations = new AtomicInteger();
+        MeterFamily<String> family = new MeterFamily<>((realm, key) -> {
+            registrations.incrementAndGet();
+            return realm + "/" + key;
+        });
+
+        String first = family.get("realm-1", "mapper-1");
+        String second = family.get("realm-1", "mapper-1");
+
+        assertThat(second).isSameAs(first);
+        assertThat(registrations).hasValue(1);
+    }
+
+    @Test
+    @DisplayName("Given different realms or keys, when meters are requested, then one meter per combination is registered")
+    void registersPerCombination() {
+        MeterFamily<String> family = new MeterFamily<>((realm, key) -> realm + "/" + key);
+
+        assertThat(family.get("realm-1", "mapper-1")).isEqualTo("realm-1/mapper-1");
+        assertThat(family.get("realm-2", "mapper-1")).isEqualTo("realm-2/mapper-1");
+        assertThat(family.get("realm-1", "mapper-2")).isEqualTo("realm-1/mapper-2");
+    }
+
+    @Test
+    @DisplayName("Given missing tag values, when a meter is requested, then it is tagged as unknown")
+    void tagsMissingValuesAsUnknown() {
+        MeterFamily<String> family = new MeterFamily<>((realm, key) -> realm + "/" + key);
+
+        assertThat(family.get(null, null)).isEqualTo("unknown/unknown");
+    }
+}